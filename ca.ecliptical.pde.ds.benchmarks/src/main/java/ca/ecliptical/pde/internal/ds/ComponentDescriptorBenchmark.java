@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures fingerprinting resolved components (done for every component on
+ * every build) and writing new component descriptors directly, for
+ * components with the given number of services, references, and properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComponentDescriptorBenchmark {
+
+	@Param({ "1", "10", "100" })
+	public int size;
+
+	private ComponentDescriptor descriptor;
+
+	@Setup
+	public void setUp() {
+		descriptor = SyntheticComponents.createComponent(0, size, size, size).freeze();
+	}
+
+	@Benchmark
+	public long fingerprint() {
+		return descriptor.getFingerprint();
+	}
+
+	@Benchmark
+	public String write() {
+		return new ComponentDescriptorWriter("\n").write(descriptor); //$NON-NLS-1$
+	}
+}
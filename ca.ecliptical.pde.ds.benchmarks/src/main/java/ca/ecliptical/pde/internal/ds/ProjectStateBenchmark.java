@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading, saving, copying, and comparing project states (as done by
+ * the builder at the start and end of each build, and by the state cache).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectStateBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int componentCount;
+
+	private ProjectState state;
+
+	private ProjectState copy;
+
+	private byte[] bytes;
+
+	private ByteArrayOutputStream out;
+
+	@Setup
+	public void setUp() throws IOException {
+		state = SyntheticComponents.createState(componentCount);
+		copy = state.clone();
+		out = new ByteArrayOutputStream();
+		state.write(out);
+		bytes = out.toByteArray();
+	}
+
+	@Benchmark
+	public ProjectState read() throws IOException {
+		return ProjectState.read(ByteBuffer.wrap(bytes));
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		out.reset();
+		state.write(out);
+		return out.size();
+	}
+
+	@Benchmark
+	public ProjectState cloneState() {
+		return state.clone();
+	}
+
+	@Benchmark
+	public boolean equalsState() {
+		return state.equals(copy);
+	}
+
+	@Benchmark
+	public long estimateSize() {
+		return state.estimateSize();
+	}
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading a project state snapshot and replaying its journal, each
+ * entry of which records changes to a few components (as appended by an
+ * incremental build).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectStateJournalBenchmark {
+
+	private static final int CHANGES_PER_ENTRY = 5;
+
+	@Param({ "1000", "10000" })
+	public int componentCount;
+
+	@Param({ "0", "10", "100" })
+	public int entryCount;
+
+	private byte[] snapshot;
+
+	private File file;
+
+	private ProjectStateJournal journal;
+
+	@Setup
+	public void setUp() throws IOException {
+		ProjectState state = SyntheticComponents.createState(componentCount);
+		state.setGeneration(1L);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		state.write(out);
+		snapshot = out.toByteArray();
+
+		file = File.createTempFile("benchmark", ".journal"); //$NON-NLS-1$ //$NON-NLS-2$
+		journal = new ProjectStateJournal(file);
+		for (int i = 0; i < entryCount; ++i) {
+			for (int j = 0; j < CHANGES_PER_ENTRY; ++j) {
+				SyntheticComponents.updateComponent(state, (i * CHANGES_PER_ENTRY + j) % componentCount, i + 1);
+			}
+
+			journal.append(state);
+			state.clearChanges();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		journal.delete();
+	}
+
+	@Benchmark
+	public ProjectState loadAndReplay() throws IOException {
+		ProjectState state = ProjectState.read(ByteBuffer.wrap(snapshot));
+		journal.replay(state);
+		return state;
+	}
+}
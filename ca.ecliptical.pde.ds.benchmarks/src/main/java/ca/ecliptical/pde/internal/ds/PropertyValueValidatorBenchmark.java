@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures validating a mix of valid and invalid property values of the given
+ * type, compared to parsing them with the corresponding
+ * <code>valueOf</code> method (which throws exceptions for invalid values).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyValueValidatorBenchmark {
+
+	private static final String[] VALUES = {
+		"0", "42", "-17", "+8", "2147483647", "-2147483648", "9223372036854775807", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+		"1.5", "-0.25e3", "NaN", "0x1p3", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		"", "abc", "12abc", "99999999999999999999", "--1", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	};
+
+	@Param({ "Integer", "Long", "Byte", "Double" })
+	public String type;
+
+	private PropertyValueValidator validator;
+
+	@Setup
+	public void setUp() {
+		validator = PropertyValueValidator.forType(type);
+	}
+
+	@Benchmark
+	public void validate(Blackhole blackhole) {
+		for (String value : VALUES) {
+			blackhole.consume(validator.isValid(value));
+		}
+	}
+
+	@Benchmark
+	public void valueOf(Blackhole blackhole) {
+		for (String value : VALUES) {
+			blackhole.consume(isValueOf(value));
+		}
+	}
+
+	private boolean isValueOf(String value) {
+		try {
+			if ("Integer".equals(type)) //$NON-NLS-1$
+				Integer.valueOf(value);
+			else if ("Long".equals(type)) //$NON-NLS-1$
+				Long.valueOf(value);
+			else if ("Byte".equals(type)) //$NON-NLS-1$
+				Byte.valueOf(value);
+			else
+				Double.valueOf(value);
+
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+}
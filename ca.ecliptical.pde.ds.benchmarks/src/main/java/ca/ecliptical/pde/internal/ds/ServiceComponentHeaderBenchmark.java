@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures updating a Service-Component header with the given number of
+ * entries (plus a few wildcards), as done after every build that retains or
+ * abandons generated files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceComponentHeaderBenchmark {
+
+	@Param({ "10", "1000", "10000" })
+	public int entryCount;
+
+	private String value;
+
+	private ArrayList<String> retained;
+
+	private ArrayList<String> changed;
+
+	private Collection<String> abandoned;
+
+	@Setup
+	public void setUp() {
+		StringBuilder buf = new StringBuilder("OSGI-INF/wildcard/*.xml,OSGI-INF/prefix*.xml"); //$NON-NLS-1$
+		retained = new ArrayList<String>(entryCount);
+		for (int i = 0; i < entryCount; ++i) {
+			String dsKey = SyntheticComponents.getDSKey(i);
+			buf.append(',').append(dsKey);
+			retained.add(dsKey);
+		}
+
+		value = buf.toString();
+
+		// one new file, one abandoned
+		changed = new ArrayList<String>(retained.subList(1, entryCount));
+		changed.add(SyntheticComponents.getDSKey(entryCount));
+		abandoned = Collections.singleton(SyntheticComponents.getDSKey(0));
+	}
+
+	@Benchmark
+	public boolean updateUnchanged() {
+		return new ServiceComponentHeader(value).update(retained, Collections.<String>emptySet());
+	}
+
+	@Benchmark
+	public String updateChanged() {
+		ServiceComponentHeader header = new ServiceComponentHeader(value);
+		header.update(changed, abandoned);
+		return header.toString();
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Creates synthetic component descriptors and project states of a given size.
+ */
+final class SyntheticComponents {
+
+	private SyntheticComponents() {
+		// not instantiable
+	}
+
+	static String getClassName(int index) {
+		return String.format("test.pkg%d.Component%d", index % 100, index); //$NON-NLS-1$
+	}
+
+	static String getCompilationUnitKey(int index) {
+		return String.format("test/pkg%d/Component%d.java", index % 100, index); //$NON-NLS-1$
+	}
+
+	static String getDSKey(int index) {
+		return String.format("OSGI-INF/%s.xml", getClassName(index)); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns a component with the given number of services, references, and
+	 * properties (every other one multi-valued).
+	 */
+	static ComponentDescriptor createComponent(int index, int serviceCount, int referenceCount, int propertyCount) {
+		String className = getClassName(index);
+		ComponentDescriptor descriptor = new ComponentDescriptor();
+		descriptor.setName(className);
+		descriptor.setImplClass(className);
+		descriptor.setDSKey(getDSKey(index));
+		descriptor.setImmediate(Boolean.TRUE);
+		descriptor.setActivate("activate"); //$NON-NLS-1$
+		descriptor.setImplicitActivate(true);
+		descriptor.setDeactivate("deactivate"); //$NON-NLS-1$
+		descriptor.setImplicitDeactivate(true);
+
+		ArrayList<String> services = new ArrayList<String>(serviceCount);
+		for (int i = 0; i < serviceCount; ++i) {
+			services.add(String.format("test.api.Service%d", i)); //$NON-NLS-1$
+		}
+
+		descriptor.setServices(services);
+
+		ArrayList<String> properties = new ArrayList<String>(propertyCount * 2);
+		for (int i = 0; i < propertyCount; ++i) {
+			properties.add(String.format("property%d:Integer=%d", i, i)); //$NON-NLS-1$
+			if (i % 2 == 1)
+				properties.add(String.format("property%d:Integer=%d", i, -i)); //$NON-NLS-1$
+		}
+
+		descriptor.setProperties(properties.toArray(new String[properties.size()]));
+
+		for (int i = 0; i < referenceCount; ++i) {
+			ComponentDescriptor.Reference reference = new ComponentDescriptor.Reference(String.format("setService%d", i)); //$NON-NLS-1$
+			reference.setName(String.format("Service%d", i)); //$NON-NLS-1$
+			reference.setService(String.format("test.api.Service%d", i)); //$NON-NLS-1$
+			reference.setCardinality("0..n"); //$NON-NLS-1$
+			reference.setPolicy("dynamic"); //$NON-NLS-1$
+			reference.setTarget(String.format("(id=%d)", i)); //$NON-NLS-1$
+			reference.setUnbind(String.format("unsetService%d", i)); //$NON-NLS-1$
+			descriptor.getReferences().add(reference);
+		}
+
+		return descriptor;
+	}
+
+	/**
+	 * Returns a project state with the given number of components, as left by
+	 * a full build (i.e., with mappings, fingerprints, descriptors, and
+	 * dependencies of each component).
+	 */
+	static ProjectState createState(int componentCount) {
+		ProjectState state = new ProjectState();
+		state.setFormatVersion(ProjectState.FORMAT_VERSION);
+		state.setPath("OSGI-INF"); //$NON-NLS-1$
+		state.setErrorLevel(ValidationErrorLevel.error);
+		state.setMissingUnbindMethodLevel(ValidationErrorLevel.error);
+		for (int i = 0; i < componentCount; ++i) {
+			updateComponent(state, i, 0);
+		}
+
+		state.clearChanges();
+		return state;
+	}
+
+	/**
+	 * Updates the given component in the given state, as if it was processed
+	 * again after a change (identified by the given revision).
+	 */
+	static void updateComponent(ProjectState state, int index, int revision) {
+		String className = getClassName(index);
+		HashMap<String, String> dsKeys = new HashMap<String, String>(1);
+		dsKeys.put(className, getDSKey(index));
+		state.updateMappings(getCompilationUnitKey(index), dsKeys);
+
+		ComponentDescriptor descriptor = createComponent(index, 1, 2 + revision % 3, 2);
+		state.setComponentDescriptor(className, descriptor);
+		state.setFingerprint(className, descriptor.getFingerprint(), revision);
+		state.setDependencies(className, Collections.singleton(String.format("test.base.Base%d", index % 10))); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+/**
+ * Stand-in for the plug-in's tracing facility, which depends on a running
+ * OSGi framework; tracing is always disabled.
+ */
+public class Debug {
+
+	private static final Debug DISABLED = new Debug();
+
+	private Debug() {
+		// use getDebug()
+	}
+
+	public static Debug getDebug(String name) {
+		return DISABLED;
+	}
+
+	public boolean isDebugging() {
+		return false;
+	}
+
+	public void trace(String message) {
+		// disabled
+	}
+
+	public void trace(String message, Throwable t) {
+		// disabled
+	}
+
+	public void traceEvent(String format, Object... args) {
+		// disabled
+	}
+}
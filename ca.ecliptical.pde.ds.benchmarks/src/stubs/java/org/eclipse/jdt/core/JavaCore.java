@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.core;
+
+/**
+ * Stand-in for the subset of JDT's <code>JavaCore</code> used by benchmarked
+ * classes; only <code>.java</code> is a Java-like extension.
+ */
+public final class JavaCore {
+
+	private static final String JAVA_EXTENSION = ".java"; //$NON-NLS-1$
+
+	private JavaCore() {
+		// not instantiable
+	}
+
+	public static String removeJavaLikeExtension(String fileName) {
+		return fileName.endsWith(JAVA_EXTENSION) ? fileName.substring(0, fileName.length() - JAVA_EXTENSION.length()) : fileName;
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.pde.internal.ds.core;
+
+/**
+ * Stand-in for the subset of PDE's DS model constants used by benchmarked
+ * classes (PDE DS isn't available outside of a PDE target platform).
+ */
+public interface IDSConstants {
+
+	String NAMESPACE = "http://www.osgi.org/xmlns/scr/v1.1.0"; //$NON-NLS-1$
+
+	String ELEMENT_COMPONENT = "component"; //$NON-NLS-1$
+
+	String ELEMENT_IMPLEMENTATION = "implementation"; //$NON-NLS-1$
+
+	String ELEMENT_PROPERTIES = "properties"; //$NON-NLS-1$
+
+	String ELEMENT_PROPERTY = "property"; //$NON-NLS-1$
+
+	String ELEMENT_PROVIDE = "provide"; //$NON-NLS-1$
+
+	String ELEMENT_REFERENCE = "reference"; //$NON-NLS-1$
+
+	String ELEMENT_SERVICE = "service"; //$NON-NLS-1$
+
+	String ATTRIBUTE_COMPONENT_ACTIVATE = "activate"; //$NON-NLS-1$
+
+	String ATTRIBUTE_COMPONENT_CONFIGURATION_POLICY = "configuration-policy"; //$NON-NLS-1$
+
+	String ATTRIBUTE_COMPONENT_DEACTIVATE = "deactivate"; //$NON-NLS-1$
+
+	String ATTRIBUTE_COMPONENT_ENABLED = "enabled"; //$NON-NLS-1$
+
+	String ATTRIBUTE_COMPONENT_FACTORY = "factory"; //$NON-NLS-1$
+
+	String ATTRIBUTE_COMPONENT_IMMEDIATE = "immediate"; //$NON-NLS-1$
+
+	String ATTRIBUTE_COMPONENT_MODIFIED = "modified"; //$NON-NLS-1$
+
+	String ATTRIBUTE_COMPONENT_NAME = "name"; //$NON-NLS-1$
+
+	String ATTRIBUTE_IMPLEMENTATION_CLASS = "class"; //$NON-NLS-1$
+
+	String ATTRIBUTE_PROPERTIES_ENTRY = "entry"; //$NON-NLS-1$
+
+	String ATTRIBUTE_PROPERTY_NAME = "name"; //$NON-NLS-1$
+
+	String ATTRIBUTE_PROPERTY_TYPE = "type"; //$NON-NLS-1$
+
+	String ATTRIBUTE_PROPERTY_VALUE = "value"; //$NON-NLS-1$
+
+	String ATTRIBUTE_PROVIDE_INTERFACE = "interface"; //$NON-NLS-1$
+
+	String ATTRIBUTE_REFERENCE_BIND = "bind"; //$NON-NLS-1$
+
+	String ATTRIBUTE_REFERENCE_CARDINALITY = "cardinality"; //$NON-NLS-1$
+
+	String ATTRIBUTE_REFERENCE_INTERFACE = "interface"; //$NON-NLS-1$
+
+	String ATTRIBUTE_REFERENCE_NAME = "name"; //$NON-NLS-1$
+
+	String ATTRIBUTE_REFERENCE_POLICY = "policy"; //$NON-NLS-1$
+
+	String ATTRIBUTE_REFERENCE_TARGET = "target"; //$NON-NLS-1$
+
+	String ATTRIBUTE_REFERENCE_UNBIND = "unbind"; //$NON-NLS-1$
+
+	String ATTRIBUTE_SERVICE_FACTORY = "servicefactory"; //$NON-NLS-1$
+
+	String VALUE_FALSE = "false"; //$NON-NLS-1$
+
+	String VALUE_TRUE = "true"; //$NON-NLS-1$
+
+	String VALUE_PROPERTY_TYPE_BOOLEAN = "Boolean"; //$NON-NLS-1$
+
+	String VALUE_PROPERTY_TYPE_BYTE = "Byte"; //$NON-NLS-1$
+
+	String VALUE_PROPERTY_TYPE_CHAR = "Character"; //$NON-NLS-1$
+
+	String VALUE_PROPERTY_TYPE_DOUBLE = "Double"; //$NON-NLS-1$
+
+	String VALUE_PROPERTY_TYPE_FLOAT = "Float"; //$NON-NLS-1$
+
+	String VALUE_PROPERTY_TYPE_INTEGER = "Integer"; //$NON-NLS-1$
+
+	String VALUE_PROPERTY_TYPE_LONG = "Long"; //$NON-NLS-1$
+
+	String VALUE_PROPERTY_TYPE_SHORT = "Short"; //$NON-NLS-1$
+
+	String VALUE_PROPERTY_TYPE_STRING = "String"; //$NON-NLS-1$
+}
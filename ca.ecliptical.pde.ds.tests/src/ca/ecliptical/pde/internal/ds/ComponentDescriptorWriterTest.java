@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.eclipse.jface.text.Document;
+import org.eclipse.pde.internal.ds.core.text.DSModel;
+import org.junit.Test;
+
+/**
+ * Checks that new component descriptors written directly are identical to
+ * those produced by applying the same descriptor to an empty component model.
+ */
+@SuppressWarnings("restriction")
+public class ComponentDescriptorWriterTest {
+
+	private static final String IMPL_CLASS = "test.Component"; //$NON-NLS-1$
+
+	@Test
+	public void testMinimalComponent() {
+		ComponentDescriptor descriptor = new ComponentDescriptor();
+		descriptor.setName(IMPL_CLASS);
+		descriptor.setImplClass(IMPL_CLASS);
+
+		check(descriptor);
+	}
+
+	@Test
+	public void testComplexComponent() {
+		ComponentDescriptor descriptor = new ComponentDescriptor();
+		descriptor.setName("test.component"); //$NON-NLS-1$
+		descriptor.setImplClass(IMPL_CLASS);
+		descriptor.setServices(Arrays.asList("test.Service1", "test.Service2")); //$NON-NLS-1$ //$NON-NLS-2$
+		descriptor.setServiceFactory(Boolean.TRUE);
+		descriptor.setEnabled(Boolean.FALSE);
+		descriptor.setImmediate(Boolean.TRUE);
+		descriptor.setConfigPolicy("require"); //$NON-NLS-1$
+		descriptor.setConfigPid("test.pid"); //$NON-NLS-1$
+		descriptor.setActivate("start"); //$NON-NLS-1$
+		descriptor.setDeactivate("stop"); //$NON-NLS-1$
+		descriptor.setModified("update"); //$NON-NLS-1$
+		descriptor.setProperties(new String[] {
+				"single= value ", //$NON-NLS-1$
+				"typed:Integer=42", //$NON-NLS-1$
+				"escaped=<a & \"b\">", //$NON-NLS-1$
+				"multi:String=first ", //$NON-NLS-1$
+				"multi:String= second", //$NON-NLS-1$
+				"noValue", //$NON-NLS-1$
+				"noValue=later ", //$NON-NLS-1$
+				"multi= third", //$NON-NLS-1$
+		});
+		descriptor.setPropertyFiles(new String[] { "OSGI-INF/test.properties" }); //$NON-NLS-1$
+
+		ComponentDescriptor.Reference reference = new ComponentDescriptor.Reference("setB"); //$NON-NLS-1$
+		reference.setName("b"); //$NON-NLS-1$
+		reference.setService("test.ServiceB"); //$NON-NLS-1$
+		reference.setCardinality("0..n"); //$NON-NLS-1$
+		reference.setPolicy("dynamic"); //$NON-NLS-1$
+		reference.setPolicyOption("greedy"); //$NON-NLS-1$
+		reference.setTarget("(&(a=1)(b=2))"); //$NON-NLS-1$
+		reference.setUnbind("unsetB"); //$NON-NLS-1$
+		reference.setUpdated("updatedB"); //$NON-NLS-1$
+		descriptor.getReferences().add(reference);
+
+		reference = new ComponentDescriptor.Reference("setA"); //$NON-NLS-1$
+		reference.setName("a"); //$NON-NLS-1$
+		reference.setService("test.ServiceA"); //$NON-NLS-1$
+		descriptor.getReferences().add(reference);
+
+		check(descriptor);
+	}
+
+	private void check(ComponentDescriptor descriptor) {
+		descriptor.freeze();
+		assertEquals(applyToEmptyModel(descriptor), new ComponentDescriptorWriter().write(descriptor));
+	}
+
+	private String applyToEmptyModel(ComponentDescriptor descriptor) {
+		DSModel model = new DSModel(new Document(), true);
+		try {
+			model.setCharset("UTF-8"); //$NON-NLS-1$
+			model.load();
+			new AnnotationVisitor(null, new ProjectState(), new HashMap<String, String>(), new HashSet<DSAnnotationProblem>()).applyComponent(model, descriptor);
+			return model.getContents();
+		} finally {
+			model.dispose();
+		}
+	}
+}
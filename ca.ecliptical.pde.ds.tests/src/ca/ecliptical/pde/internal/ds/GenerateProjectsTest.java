@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IProjectDescription;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceDescription;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.pde.internal.core.natures.PDE;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that generating descriptors for several projects at once processes
+ * every one of them, not just the last.
+ */
+@SuppressWarnings("restriction")
+public class GenerateProjectsTest {
+
+	private static final String PROJECT_PREFIX = "ds.generate.test"; //$NON-NLS-1$
+
+	private static final int PROJECT_COUNT = 3;
+
+	private final List<IJavaProject> projects = new ArrayList<IJavaProject>(PROJECT_COUNT);
+
+	private boolean autoBuilding;
+
+	@Before
+	public void setUp() throws CoreException {
+		// projects must not be built before they're generated
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		IWorkspaceDescription description = workspace.getDescription();
+		autoBuilding = description.isAutoBuilding();
+		if (autoBuilding) {
+			description.setAutoBuilding(false);
+			workspace.setDescription(description);
+		}
+
+		for (int i = 0; i < PROJECT_COUNT; ++i) {
+			projects.add(createProject(PROJECT_PREFIX + i));
+		}
+	}
+
+	@After
+	public void tearDown() throws CoreException {
+		for (IJavaProject project : projects) {
+			project.getProject().delete(true, true, null);
+		}
+
+		if (autoBuilding) {
+			IWorkspace workspace = ResourcesPlugin.getWorkspace();
+			IWorkspaceDescription description = workspace.getDescription();
+			description.setAutoBuilding(true);
+			workspace.setDescription(description);
+		}
+	}
+
+	@Test
+	public void testGenerateMultipleProjects() throws CoreException {
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		workspace.run(new IWorkspaceRunnable() {
+			public void run(IProgressMonitor monitor) throws CoreException {
+				new DSAnnotationCompilationParticipant().generate(projects);
+			}
+		}, workspace.getRoot(), IWorkspace.AVOID_UPDATE, null);
+
+		for (IJavaProject project : projects) {
+			IFile file = project.getProject().getFile(String.format("%s/%s.Component.xml", Activator.DEFAULT_PATH, project.getElementName())); //$NON-NLS-1$
+			assertTrue(String.format("Missing %s", file.getFullPath()), file.exists()); //$NON-NLS-1$
+		}
+	}
+
+	private IJavaProject createProject(String name) throws CoreException {
+		IProject project = ResourcesPlugin.getWorkspace().getRoot().getProject(name);
+		IProjectDescription description = project.getWorkspace().newProjectDescription(name);
+		description.setNatureIds(new String[] { JavaCore.NATURE_ID, PDE.PLUGIN_NATURE });
+		project.create(description, null);
+		project.open(null);
+
+		createFile(project, "META-INF/MANIFEST.MF", //$NON-NLS-1$
+				"Manifest-Version: 1.0\n" //$NON-NLS-1$
+				+ "Bundle-ManifestVersion: 2\n" //$NON-NLS-1$
+				+ "Bundle-SymbolicName: " + name + "\n" //$NON-NLS-1$ //$NON-NLS-2$
+				+ "Bundle-Version: 1.0.0\n" //$NON-NLS-1$
+				+ "Bundle-RequiredExecutionEnvironment: J2SE-1.5\n"); //$NON-NLS-1$
+		createFile(project, "build.properties", //$NON-NLS-1$
+				"source.. = src/\n" //$NON-NLS-1$
+				+ "output.. = bin/\n" //$NON-NLS-1$
+				+ "bin.includes = META-INF/,.\n"); //$NON-NLS-1$
+		createFile(project, "src/" + name.replace('.', '/') + "/Component.java", //$NON-NLS-1$ //$NON-NLS-2$
+				"package " + name + ";\n\n" //$NON-NLS-1$ //$NON-NLS-2$
+				+ "@org.osgi.service.component.annotations.Component\n" //$NON-NLS-1$
+				+ "public class Component {\n}\n"); //$NON-NLS-1$
+
+		IJavaProject javaProject = JavaCore.create(project);
+		javaProject.setRawClasspath(new IClasspathEntry[] {
+				JavaCore.newSourceEntry(project.getFolder("src").getFullPath()), //$NON-NLS-1$
+				JavaCore.newContainerEntry(new Path("org.eclipse.jdt.launching.JRE_CONTAINER")), //$NON-NLS-1$
+				JavaCore.newContainerEntry(new Path("org.eclipse.pde.core.requiredPlugins")), //$NON-NLS-1$
+		}, project.getFolder("bin").getFullPath(), null); //$NON-NLS-1$
+
+		return javaProject;
+	}
+
+	private void createFile(IProject project, String path, String content) throws CoreException {
+		IFile file = project.getFile(path);
+		createFolders(file.getParent());
+		try {
+			file.create(new ByteArrayInputStream(content.getBytes("UTF-8")), true, null); //$NON-NLS-1$
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void createFolders(IContainer container) throws CoreException {
+		if (!(container instanceof IFolder))
+			return;
+
+		IFolder folder = (IFolder) container;
+		if (folder.exists())
+			return;
+
+		createFolders(folder.getParent());
+		folder.create(true, true, null);
+	}
+}
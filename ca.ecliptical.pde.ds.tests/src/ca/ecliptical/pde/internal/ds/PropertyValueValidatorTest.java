@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.pde.internal.ds.core.IDSConstants;
+import org.junit.Test;
+
+/**
+ * Checks that property values are accepted exactly when the corresponding
+ * <code>valueOf</code> method accepts them.
+ */
+@SuppressWarnings("restriction")
+public class PropertyValueValidatorTest {
+
+	// values of interest to all numeric types
+	private static final String[] COMMON_VALUES = {
+		"", //$NON-NLS-1$
+		"0", //$NON-NLS-1$
+		"1", //$NON-NLS-1$
+		"-1", //$NON-NLS-1$
+		"+1", //$NON-NLS-1$
+		"007", //$NON-NLS-1$
+		"-0", //$NON-NLS-1$
+		"+", //$NON-NLS-1$
+		"-", //$NON-NLS-1$
+		"+-1", //$NON-NLS-1$
+		"--1", //$NON-NLS-1$
+		"1-", //$NON-NLS-1$
+		" 1", //$NON-NLS-1$
+		"1 ", //$NON-NLS-1$
+		"\t1\n", //$NON-NLS-1$
+		"1 000", //$NON-NLS-1$
+		"1_000", //$NON-NLS-1$
+		"a", //$NON-NLS-1$
+		"1a", //$NON-NLS-1$
+		"0x10", //$NON-NLS-1$
+		"1L", //$NON-NLS-1$
+		"\u0661\u0662", // Arabic-Indic digits //$NON-NLS-1$
+		"-\u0661", //$NON-NLS-1$
+		"\uff11\uff12", // fullwidth digits //$NON-NLS-1$
+		"\u0967", // Devanagari digit //$NON-NLS-1$
+		"99999999999999999999999999", //$NON-NLS-1$
+		"-99999999999999999999999999", //$NON-NLS-1$
+	};
+
+	// values of interest to floating point types
+	private static final String[] FLOATING_POINT_VALUES = {
+		"1.", //$NON-NLS-1$
+		".5", //$NON-NLS-1$
+		"-.5", //$NON-NLS-1$
+		".", //$NON-NLS-1$
+		"-.", //$NON-NLS-1$
+		"1.5", //$NON-NLS-1$
+		"1..5", //$NON-NLS-1$
+		"1.5.", //$NON-NLS-1$
+		"1e5", //$NON-NLS-1$
+		"1E5", //$NON-NLS-1$
+		"1e+5", //$NON-NLS-1$
+		"1e-5", //$NON-NLS-1$
+		"1e", //$NON-NLS-1$
+		"1e+", //$NON-NLS-1$
+		"e5", //$NON-NLS-1$
+		".e5", //$NON-NLS-1$
+		"1.e5", //$NON-NLS-1$
+		".5e5", //$NON-NLS-1$
+		"1e5.5", //$NON-NLS-1$
+		"1e\u0661", //$NON-NLS-1$
+		"1.\u0661", //$NON-NLS-1$
+		"1e999", //$NON-NLS-1$
+		"1e-999", //$NON-NLS-1$
+		"1f", //$NON-NLS-1$
+		"1F", //$NON-NLS-1$
+		"1d", //$NON-NLS-1$
+		"1D", //$NON-NLS-1$
+		"1.5e3f", //$NON-NLS-1$
+		".5d", //$NON-NLS-1$
+		"1.f", //$NON-NLS-1$
+		"1ff", //$NON-NLS-1$
+		"1fd", //$NON-NLS-1$
+		"f", //$NON-NLS-1$
+		".f", //$NON-NLS-1$
+		"1l", //$NON-NLS-1$
+		"0x1p3", //$NON-NLS-1$
+		"0X1P3", //$NON-NLS-1$
+		"-0x1p3", //$NON-NLS-1$
+		"0x1.8p1", //$NON-NLS-1$
+		"0x.8p1", //$NON-NLS-1$
+		"0x1.p1", //$NON-NLS-1$
+		"0xAbCp-3", //$NON-NLS-1$
+		"0x1p+3", //$NON-NLS-1$
+		"0x1p3f", //$NON-NLS-1$
+		"0x1p3D", //$NON-NLS-1$
+		"0x1", //$NON-NLS-1$
+		"0x1.8", //$NON-NLS-1$
+		"0x1e3", //$NON-NLS-1$
+		"0xp1", //$NON-NLS-1$
+		"0x.p1", //$NON-NLS-1$
+		"0x1p", //$NON-NLS-1$
+		"0x1pA", //$NON-NLS-1$
+		"0x", //$NON-NLS-1$
+		"0xg", //$NON-NLS-1$
+		"x1p3", //$NON-NLS-1$
+		"NaN", //$NON-NLS-1$
+		"+NaN", //$NON-NLS-1$
+		"-NaN", //$NON-NLS-1$
+		"NaNf", //$NON-NLS-1$
+		"nan", //$NON-NLS-1$
+		"NaN1", //$NON-NLS-1$
+		"Infinity", //$NON-NLS-1$
+		"+Infinity", //$NON-NLS-1$
+		"-Infinity", //$NON-NLS-1$
+		"Infinityd", //$NON-NLS-1$
+		"infinity", //$NON-NLS-1$
+		"Inf", //$NON-NLS-1$
+		" NaN ", //$NON-NLS-1$
+		" 1.5e3f ", //$NON-NLS-1$
+		"\t0x1p3\n", //$NON-NLS-1$
+	};
+
+	@Test
+	public void testLong() {
+		check(IDSConstants.VALUE_PROPERTY_TYPE_LONG, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testInteger() {
+		check(IDSConstants.VALUE_PROPERTY_TYPE_INTEGER, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testCharacter() {
+		// characters are specified by their (integer) code
+		check(IDSConstants.VALUE_PROPERTY_TYPE_CHAR, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testShort() {
+		check(IDSConstants.VALUE_PROPERTY_TYPE_SHORT, Short.MIN_VALUE, Short.MAX_VALUE);
+	}
+
+	@Test
+	public void testByte() {
+		check(IDSConstants.VALUE_PROPERTY_TYPE_BYTE, Byte.MIN_VALUE, Byte.MAX_VALUE);
+	}
+
+	@Test
+	public void testDouble() {
+		check(IDSConstants.VALUE_PROPERTY_TYPE_DOUBLE, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testFloat() {
+		check(IDSConstants.VALUE_PROPERTY_TYPE_FLOAT, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testNonNumeric() {
+		String[] types = { null, IDSConstants.VALUE_PROPERTY_TYPE_STRING, IDSConstants.VALUE_PROPERTY_TYPE_BOOLEAN };
+		for (String type : types) {
+			PropertyValueValidator validator = PropertyValueValidator.forType(type);
+			assertNotNull(validator);
+			for (String value : getValues(Long.MIN_VALUE, Long.MAX_VALUE)) {
+				assertEquals(String.format("%s: \"%s\"", type, value), true, validator.isValid(value)); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private void check(String type, long min, long max) {
+		PropertyValueValidator validator = PropertyValueValidator.forType(type);
+		assertNotNull(validator);
+		for (String value : getValues(min, max)) {
+			assertEquals(String.format("%s: \"%s\"", type, value), isValid(type, value), validator.isValid(value)); //$NON-NLS-1$
+		}
+	}
+
+	private List<String> getValues(long min, long max) {
+		ArrayList<String> values = new ArrayList<String>(Arrays.asList(COMMON_VALUES));
+		values.addAll(Arrays.asList(FLOATING_POINT_VALUES));
+
+		// range limits of all integral types, +/- 1
+		long[] limits = { min, max, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE, Byte.MIN_VALUE, Byte.MAX_VALUE };
+		for (long limit : limits) {
+			BigInteger value = BigInteger.valueOf(limit);
+			values.add(value.subtract(BigInteger.ONE).toString());
+			values.add(value.toString());
+			values.add(value.add(BigInteger.ONE).toString());
+			if (limit > 0)
+				values.add("+" + value); //$NON-NLS-1$
+		}
+
+		return values;
+	}
+
+	private static boolean isValid(String type, String value) {
+		try {
+			if (IDSConstants.VALUE_PROPERTY_TYPE_LONG.equals(type))
+				Long.valueOf(value);
+			else if (IDSConstants.VALUE_PROPERTY_TYPE_DOUBLE.equals(type))
+				Double.valueOf(value);
+			else if (IDSConstants.VALUE_PROPERTY_TYPE_FLOAT.equals(type))
+				Float.valueOf(value);
+			else if (IDSConstants.VALUE_PROPERTY_TYPE_INTEGER.equals(type) || IDSConstants.VALUE_PROPERTY_TYPE_CHAR.equals(type))
+				Integer.valueOf(value);
+			else if (IDSConstants.VALUE_PROPERTY_TYPE_BYTE.equals(type))
+				Byte.valueOf(value);
+			else if (IDSConstants.VALUE_PROPERTY_TYPE_SHORT.equals(type))
+				Short.valueOf(value);
+
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+}
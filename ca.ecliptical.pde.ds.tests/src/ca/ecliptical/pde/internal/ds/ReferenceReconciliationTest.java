@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.eclipse.jface.text.Document;
+import org.eclipse.pde.internal.ds.core.IDSReference;
+import org.eclipse.pde.internal.ds.core.text.DSModel;
+import org.junit.Test;
+
+/**
+ * Checks that references in existing component descriptors are reordered,
+ * inserted, and removed correctly when reconciled through the component
+ * model, including any attributes not managed by the builder.
+ */
+@SuppressWarnings("restriction")
+public class ReferenceReconciliationTest {
+
+	private static final String IMPL_CLASS = "test.Component"; //$NON-NLS-1$
+
+	private static final String EXTRA_ATTRIBUTE = "x-note"; //$NON-NLS-1$
+
+	private static final int REFERENCE_COUNT = 200;
+
+	@Test
+	public void testReorderReferences() {
+		List<Integer> existing = new ArrayList<Integer>(REFERENCE_COUNT);
+		for (int i = REFERENCE_COUNT - 1; i >= 0; --i) {
+			existing.add(i);
+		}
+
+		List<Integer> expected = new ArrayList<Integer>(REFERENCE_COUNT);
+		for (int i = 0; i < REFERENCE_COUNT; ++i) {
+			expected.add(i);
+		}
+
+		check(existing, expected);
+	}
+
+	@Test
+	public void testShuffleReferences() {
+		List<Integer> existing = new ArrayList<Integer>(REFERENCE_COUNT);
+		for (int i = 0; i < REFERENCE_COUNT; ++i) {
+			// every other pair swapped, plus first and last
+			existing.add(i % 4 == 1 ? i + 1 : i % 4 == 2 ? i - 1 : i);
+		}
+
+		existing.add(0, existing.remove(existing.size() - 1));
+
+		List<Integer> expected = new ArrayList<Integer>(REFERENCE_COUNT);
+		for (int i = 0; i < REFERENCE_COUNT; ++i) {
+			expected.add(i);
+		}
+
+		check(existing, expected);
+	}
+
+	@Test
+	public void testInsertAndDeleteReferences() {
+		List<Integer> existing = new ArrayList<Integer>(REFERENCE_COUNT);
+		for (int i = REFERENCE_COUNT - 1; i >= 0; --i) {
+			// every third reference is new
+			if (i % 3 != 0)
+				existing.add(i);
+		}
+
+		List<Integer> expected = new ArrayList<Integer>(REFERENCE_COUNT);
+		for (int i = 0; i < REFERENCE_COUNT; ++i) {
+			// every fifth reference is gone
+			if (i % 5 != 0)
+				expected.add(i);
+		}
+
+		check(existing, expected);
+	}
+
+	@Test
+	public void testDeleteAllReferences() {
+		List<Integer> existing = new ArrayList<Integer>(REFERENCE_COUNT);
+		for (int i = 0; i < REFERENCE_COUNT; ++i) {
+			existing.add(i);
+		}
+
+		check(existing, new ArrayList<Integer>(0));
+	}
+
+	private void check(List<Integer> existing, List<Integer> expected) {
+		String content = createContent(existing);
+		ComponentDescriptor descriptor = createDescriptor(expected);
+
+		String result = apply(content, descriptor);
+		checkReferences(result, existing, expected);
+
+		// applying the same descriptor to the result must not change it
+		assertEquals(result, apply(result, descriptor));
+	}
+
+	private void checkReferences(String content, List<Integer> existing, List<Integer> expected) {
+		DSModel model = load(content, false);
+		try {
+			IDSReference[] references = model.getDSComponent().getReferences();
+			assertEquals(expected.size(), references.length);
+			for (int i = 0; i < references.length; ++i) {
+				int index = expected.get(i).intValue();
+				IDSReference reference = references[i];
+				assertEquals(getName(index), reference.getReferenceName());
+				assertEquals("set" + index, reference.getReferenceBind()); //$NON-NLS-1$
+				assertEquals("unset" + index, reference.getReferenceUnbind()); //$NON-NLS-1$
+				assertEquals("test.Service" + index, reference.getReferenceInterface()); //$NON-NLS-1$
+				assertEquals("0..n", reference.getReferenceCardinality()); //$NON-NLS-1$
+				assertEquals("dynamic", reference.getReferencePolicy()); //$NON-NLS-1$
+				assertEquals("(id=" + index + ")", reference.getReferenceTarget()); //$NON-NLS-1$ //$NON-NLS-2$
+
+				// attributes we don't manage must survive being moved
+				String extra = reference.getXMLAttributeValue(EXTRA_ATTRIBUTE);
+				assertEquals(existing.contains(Integer.valueOf(index)) ? String.valueOf(index) : null, extra);
+			}
+		} finally {
+			model.dispose();
+		}
+	}
+
+	private String apply(String content, ComponentDescriptor descriptor) {
+		DSModel model = load(content, true);
+		try {
+			new AnnotationVisitor(null, new ProjectState(), new HashMap<String, String>(), new HashSet<DSAnnotationProblem>()).applyComponent(model, descriptor);
+			return model.getContents();
+		} finally {
+			model.dispose();
+		}
+	}
+
+	private DSModel load(String content, boolean editable) {
+		DSModel model = new DSModel(new Document(content), editable);
+		model.setCharset("UTF-8"); //$NON-NLS-1$
+		model.load();
+		return model;
+	}
+
+	private String createContent(List<Integer> indices) {
+		StringBuilder buf = new StringBuilder();
+		buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"); //$NON-NLS-1$
+		buf.append("<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.1.0\" name=\"").append(IMPL_CLASS).append("\">\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (Integer index : indices) {
+			int i = index.intValue();
+			buf.append("   <reference bind=\"set").append(i) //$NON-NLS-1$
+					.append("\" cardinality=\"0..n\" interface=\"test.Service").append(i) //$NON-NLS-1$
+					.append("\" name=\"").append(getName(i)) //$NON-NLS-1$
+					.append("\" policy=\"dynamic\" target=\"(id=").append(i) //$NON-NLS-1$
+					.append(")\" unbind=\"unset").append(i) //$NON-NLS-1$
+					.append("\" ").append(EXTRA_ATTRIBUTE).append("=\"").append(i).append("\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+
+		buf.append("   <implementation class=\"").append(IMPL_CLASS).append("\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		buf.append("</scr:component>\n"); //$NON-NLS-1$
+		return buf.toString();
+	}
+
+	private ComponentDescriptor createDescriptor(List<Integer> indices) {
+		ComponentDescriptor descriptor = new ComponentDescriptor();
+		descriptor.setName(IMPL_CLASS);
+		descriptor.setImplClass(IMPL_CLASS);
+		for (Integer index : indices) {
+			int i = index.intValue();
+			ComponentDescriptor.Reference reference = new ComponentDescriptor.Reference("set" + i); //$NON-NLS-1$
+			reference.setName(getName(i));
+			reference.setService("test.Service" + i); //$NON-NLS-1$
+			reference.setCardinality("0..n"); //$NON-NLS-1$
+			reference.setPolicy("dynamic"); //$NON-NLS-1$
+			reference.setTarget("(id=" + i + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			reference.setUnbind("unset" + i); //$NON-NLS-1$
+			descriptor.getReferences().add(reference);
+		}
+
+		return descriptor;
+	}
+
+	private static String getName(int index) {
+		// zero-padded, so that names sort in numeric order
+		return String.format("ref%04d", index); //$NON-NLS-1$
+	}
+}
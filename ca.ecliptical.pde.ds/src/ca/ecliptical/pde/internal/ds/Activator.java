@@ -35,6 +35,24 @@ public class Activator extends AbstractUIPlugin {
 
 	public static final String PREF_MISSING_UNBIND_METHOD_ERROR_LEVEL = "validationErrorLevel.missingImplicitUnbindMethod"; //$NON-NLS-1$
 
+	// number of threads used to process annotations; non-positive value means number of available processors
+	public static final String PREF_PARALLELISM = "parallelism"; //$NON-NLS-1$
+
+	// minimum number of CUs in each partition of a project processed by multiple threads; non-positive value means default
+	public static final String PREF_SPLIT_THRESHOLD = "splitThreshold"; //$NON-NLS-1$
+
+	// maximum number of CUs parsed together (i.e., sharing one binding environment); non-positive value means no limit
+	public static final String PREF_CHUNK_SIZE = "chunkSize"; //$NON-NLS-1$
+
+	// heap budget of CUs parsed together (in megabytes); non-positive value means a quarter of the maximum heap size
+	public static final String PREF_CHUNK_MEMORY = "chunkMemory"; //$NON-NLS-1$
+
+	// memory budget of the project state cache (in megabytes)
+	public static final String PREF_STATE_CACHE_SIZE = "stateCacheSize"; //$NON-NLS-1$
+
+	// whether to write metrics of each build into the project's working location
+	public static final String PREF_BUILD_METRICS = "buildMetrics"; //$NON-NLS-1$
+
 	public static final String DEFAULT_PATH = "OSGI-INF"; //$NON-NLS-1$
 
 	// The shared instance
@@ -42,6 +60,8 @@ public class Activator extends AbstractUIPlugin {
 
 	private DSAnnotationPreferenceListener dsPrefListener;
 
+	private ProjectStateCache stateCache;
+
 	private final HashMap<IJavaProject, ProjectClasspathPreferenceChangeListener> projectPrefListeners = new HashMap<IJavaProject, ProjectClasspathPreferenceChangeListener>();
 
 	/*
@@ -54,6 +74,7 @@ public class Activator extends AbstractUIPlugin {
 		plugin = this;
 
 		dsPrefListener = new DSAnnotationPreferenceListener();
+		stateCache = new ProjectStateCache();
 	}
 
 	/*
@@ -63,6 +84,8 @@ public class Activator extends AbstractUIPlugin {
 	@Override
 	public void stop(BundleContext context) throws Exception {
 		dsPrefListener.dispose();
+		stateCache.dispose();
+		TraceBuffer.shutdown();
 
 		synchronized (projectPrefListeners) {
 			for (ProjectClasspathPreferenceChangeListener listener : projectPrefListeners.values()) {
@@ -85,6 +108,10 @@ public class Activator extends AbstractUIPlugin {
 		return plugin;
 	}
 
+	ProjectStateCache getStateCache() {
+		return stateCache;
+	}
+
 	void listenForClasspathPreferenceChanges(IJavaProject project) {
 		synchronized (projectPrefListeners) {
 			if (!projectPrefListeners.containsKey(project))
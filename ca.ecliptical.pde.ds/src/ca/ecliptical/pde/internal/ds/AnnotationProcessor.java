@@ -11,11 +11,7 @@
 package ca.ecliptical.pde.internal.ds;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -30,25 +26,13 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
 import java.util.regex.Pattern;
 
-import org.eclipse.core.filebuffers.FileBuffers;
-import org.eclipse.core.filebuffers.ITextFileBuffer;
-import org.eclipse.core.filebuffers.ITextFileBufferManager;
-import org.eclipse.core.filebuffers.LocationKind;
-import org.eclipse.core.resources.ICommand;
-import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IProjectDescription;
-import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
-import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
-import org.eclipse.core.runtime.Status;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IType;
@@ -76,19 +60,15 @@ import org.eclipse.jdt.core.dom.Modifier;
 import org.eclipse.jdt.core.dom.NormalAnnotation;
 import org.eclipse.jdt.core.dom.SingleMemberAnnotation;
 import org.eclipse.jdt.core.dom.TypeDeclaration;
-import org.eclipse.jface.text.BadLocationException;
-import org.eclipse.jface.text.DocumentRewriteSession;
-import org.eclipse.jface.text.DocumentRewriteSessionType;
+import org.eclipse.jface.text.Document;
 import org.eclipse.jface.text.IDocument;
-import org.eclipse.jface.text.IDocumentExtension4;
-import org.eclipse.jface.text.link.LinkedModeModel;
 import org.eclipse.osgi.util.NLS;
 import org.eclipse.pde.core.IModelChangedEvent;
 import org.eclipse.pde.core.ModelChangedEvent;
 import org.eclipse.pde.internal.core.project.PDEProject;
 import org.eclipse.pde.internal.core.text.IDocumentAttributeNode;
 import org.eclipse.pde.internal.core.text.IDocumentElementNode;
-import org.eclipse.pde.internal.core.text.IDocumentObject;
+import org.eclipse.pde.internal.core.text.IDocumentNodeFactory;
 import org.eclipse.pde.internal.core.text.IDocumentTextNode;
 import org.eclipse.pde.internal.core.text.IModelTextChangeListener;
 import org.eclipse.pde.internal.ds.core.IDSComponent;
@@ -103,8 +83,6 @@ import org.eclipse.pde.internal.ds.core.IDSProvide;
 import org.eclipse.pde.internal.ds.core.IDSReference;
 import org.eclipse.pde.internal.ds.core.IDSService;
 import org.eclipse.pde.internal.ds.core.text.DSModel;
-import org.eclipse.text.edits.MalformedTreeException;
-import org.eclipse.text.edits.MultiTextEdit;
 import org.eclipse.text.edits.ReplaceEdit;
 import org.eclipse.text.edits.TextEdit;
 import org.osgi.framework.BundleContext;
@@ -124,32 +102,29 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
 @SuppressWarnings("restriction")
 public class AnnotationProcessor extends ASTRequestor {
 
-	private static final String DS_BUILDER = "org.eclipse.pde.ds.core.builder"; //$NON-NLS-1$
-
 	static final Debug debug = Debug.getDebug("ds-annotation-builder/processor"); //$NON-NLS-1$
 
 	private final ProjectContext context;
 
 	private final Map<ICompilationUnit, BuildContext> fileMap;
 
-	private boolean hasBuilder;
+	// bindings are specific to one batch of ASTs, and so is the index
+	private final MethodIndex methodIndex = new MethodIndex();
+
+	private final ComponentReconciler reconciler;
 
-	public AnnotationProcessor(ProjectContext context, Map<ICompilationUnit, BuildContext> fileMap) {
+	public AnnotationProcessor(ProjectContext context, Map<ICompilationUnit, BuildContext> fileMap, ComponentReconciler reconciler) {
 		this.context = context;
 		this.fileMap = fileMap;
+		this.reconciler = reconciler;
 	}
 
 	@Override
 	public void acceptAST(ICompilationUnit source, CompilationUnit ast) {
-		// determine CU key
-		String cuKey;
-		IJavaElement parent = source.getParent();
-		if (parent == null)
-			cuKey = source.getElementName();
-		else
-			cuKey = String.format("%s/%s", parent.getElementName().replace('.',  '/'), source.getElementName()); //$NON-NLS-1$
+		String cuKey = getCompilationUnitKey(source);
 
 		context.getUnprocessed().remove(cuKey);
+		context.getMetrics().increment(BuildMetrics.Counter.compilationUnits);
 
 		ProjectState state = context.getState();
 		HashMap<String, String> dsKeys = new HashMap<String, String>();
@@ -172,59 +147,51 @@ public class AnnotationProcessor extends ASTRequestor {
 					problem.setSourceLineNumber(ast.getLineNumber(problem.getSourceStart()));
 			}
 
-			BuildContext buildContext = fileMap.get(source);
-			if (buildContext != null)
-				buildContext.recordNewProblems(problems.toArray(new CategorizedProblem[problems.size()]));
+			context.getMetrics().add(BuildMetrics.Counter.problemsReported, problems.size());
 		}
-	}
 
-	private void ensureDSProject(IProject project) throws CoreException {
-		IProjectDescription description = project.getDescription();
-		ICommand[] commands = description.getBuildSpec();
-
-		for (ICommand command : commands) {
-			if (DS_BUILDER.equals(command.getBuilderName()))
-				return;
+		BuildContext buildContext = fileMap.get(source);
+		if (buildContext == null) {
+			// not being compiled; report problems (or their absence) directly
+			if (source.getResource() instanceof IFile)
+				context.getProblems().put((IFile) source.getResource(), problems);
+		} else {
+			context.getProblems().remove(source.getResource());
+			if (!problems.isEmpty())
+				buildContext.recordNewProblems(problems.toArray(new CategorizedProblem[problems.size()]));
 		}
-
-		ICommand[] newCommands = new ICommand[commands.length + 1];
-		System.arraycopy(commands, 0, newCommands, 0, commands.length);
-		ICommand command = description.newCommand();
-		command.setBuilderName(DS_BUILDER);
-		newCommands[newCommands.length - 1] = command;
-		description.setBuildSpec(newCommands);
-		project.setDescription(description, null);
 	}
 
-	private void ensureExists(IFolder folder) throws CoreException {
-		if (folder.exists())
-			return;
+	static String getCompilationUnitKey(ICompilationUnit source) {
+		IJavaElement parent = source.getParent();
+		if (parent == null)
+			return source.getElementName();
 
-		IContainer parent = folder.getParent();
-		if (parent != null && parent.getType() == IResource.FOLDER)
-			ensureExists((IFolder) parent);
+		return String.format("%s/%s", parent.getElementName().replace('.',  '/'), source.getElementName()); //$NON-NLS-1$
+	}
 
-		folder.create(true, true, null);
+	/**
+	 * Returns the key of the given compilation unit's file; same as its
+	 * resource's full path.
+	 */
+	static String getFileKey(ICompilationUnit source) {
+		return source.getPath().toPortableString();
 	}
 
-	void verifyOutputLocation(IFile file) throws CoreException {
-		if (hasBuilder)
-			return;
+	ModelFileWriter getWriter() {
+		return context.getWriter();
+	}
 
-		hasBuilder = true;
-		IProject project = file.getProject();
+	BuildMetrics getMetrics() {
+		return context.getMetrics();
+	}
 
-		IPath parentPath = file.getParent().getProjectRelativePath();
-		if (!parentPath.isEmpty()) {
-			IFolder folder = project.getFolder(parentPath);
-			ensureExists(folder);
-		}
+	MethodIndex getMethodIndex() {
+		return methodIndex;
+	}
 
-		try {
-			ensureDSProject(project);
-		} catch (CoreException e) {
-			Activator.log(e);
-		}
+	ComponentReconciler getReconciler() {
+		return reconciler;
 	}
 }
 
@@ -255,20 +222,6 @@ class AnnotationVisitor extends ASTVisitor {
 
 	private static final String VALUE_REFERENCE_POLICY_OPTION_RELUCTANT = "reluctant"; //$NON-NLS-1$
 
-	private static final Set<String> PROPERTY_TYPES = Collections.unmodifiableSet(
-			new HashSet<String>(
-					Arrays.asList(
-							null,
-							IDSConstants.VALUE_PROPERTY_TYPE_STRING,
-							IDSConstants.VALUE_PROPERTY_TYPE_LONG,
-							IDSConstants.VALUE_PROPERTY_TYPE_DOUBLE,
-							IDSConstants.VALUE_PROPERTY_TYPE_FLOAT,
-							IDSConstants.VALUE_PROPERTY_TYPE_INTEGER,
-							IDSConstants.VALUE_PROPERTY_TYPE_BYTE,
-							IDSConstants.VALUE_PROPERTY_TYPE_CHAR,
-							IDSConstants.VALUE_PROPERTY_TYPE_BOOLEAN,
-							IDSConstants.VALUE_PROPERTY_TYPE_SHORT)));
-
 	private static final Comparator<IDSReference> REF_NAME_COMPARATOR = new Comparator<IDSReference>() {
 
 		public int compare(IDSReference o1, IDSReference o2) {
@@ -290,6 +243,9 @@ class AnnotationVisitor extends ASTVisitor {
 
 	private final Set<DSAnnotationProblem> problems;
 
+	// types (other than the component type) whose members the current component's resolution depended on
+	private Set<String> dependencies;
+
 	public AnnotationVisitor(AnnotationProcessor processor, ProjectState state, Map<String, String> dsKeys, Set<DSAnnotationProblem> problems) {
 		this.processor = processor;
 		this.state = state;
@@ -340,17 +296,18 @@ class AnnotationVisitor extends ASTVisitor {
 				ITypeBinding typeBinding = type.resolveBinding();
 				if (typeBinding == null) {
 					if (debug.isDebugging())
-						debug.trace(String.format("Unable to resolve binding for type: %s", type)); //$NON-NLS-1$
+						debug.traceEvent("Unable to resolve binding for type: %s", type); //$NON-NLS-1$
 				} else {
 					IAnnotationBinding annotationBinding = annotation.resolveAnnotationBinding();
 					if (annotationBinding == null) {
 						if (debug.isDebugging())
-							debug.trace(String.format("Unable to resolve binding for annotation: %s", annotation)); //$NON-NLS-1$
+							debug.traceEvent("Unable to resolve binding for annotation: %s", annotation); //$NON-NLS-1$
 					} else {
+						long start = System.nanoTime();
 						try {
 							processComponent(type, typeBinding, annotation, annotationBinding, problems);
-						} catch (CoreException e) {
-							Activator.log(e);
+						} finally {
+							processor.getMetrics().addTime(BuildMetrics.Phase.processComponent, System.nanoTime() - start);
 						}
 					}
 				}
@@ -387,7 +344,7 @@ class AnnotationVisitor extends ASTVisitor {
 			IAnnotationBinding annotationBinding = annotation.resolveAnnotationBinding();
 			if (annotationBinding == null) {
 				if (debug.isDebugging())
-					debug.trace(String.format("Unable to resolve binding for annotation: %s", annotation)); //$NON-NLS-1$
+					debug.traceEvent("Unable to resolve binding for annotation: %s", annotation); //$NON-NLS-1$
 
 				continue;
 			}
@@ -425,54 +382,86 @@ class AnnotationVisitor extends ASTVisitor {
 		return !hasConstructor;
 	}
 
-	private void processComponent(TypeDeclaration type, ITypeBinding typeBinding, Annotation annotation, IAnnotationBinding annotationBinding, Collection<DSAnnotationProblem> problems) throws CoreException {
-		// determine component name
-		HashMap<String, Object> params = new HashMap<String, Object>();
-		for (IMemberValuePairBinding pair : annotationBinding.getDeclaredMemberValuePairs()) {
-			params.put(pair.getName(), pair.getValue());
-		}
-
-		String implClass = typeBinding.getBinaryName();
-
-		String name = implClass;
-		Object value;
-		if ((value = params.get("name")) instanceof String) { //$NON-NLS-1$
-			name = (String) value;
-			validateComponentName(annotation, name, problems);
-		}
+	private void processComponent(TypeDeclaration type, ITypeBinding typeBinding, Annotation annotation, IAnnotationBinding annotationBinding, Collection<DSAnnotationProblem> problems) {
+		dependencies = new HashSet<String>();
+		ComponentDescriptor descriptor = resolveComponent(type, typeBinding, annotation, annotationBinding, problems);
+		String implClass = descriptor.getImplClass();
 
 		// set up document to edit
-		IPath path = new Path(state.getPath()).append(name).addFileExtension("xml"); //$NON-NLS-1$
+		IPath path = new Path(state.getPath()).append(descriptor.getName()).addFileExtension("xml"); //$NON-NLS-1$
 
 		String dsKey = path.toPortableString();
 		dsKeys.put(implClass, dsKey);
+		descriptor.setDSKey(dsKey);
+
+		// retain for clients that need component metadata without re-parsing
+		state.setComponentDescriptor(implClass, descriptor);
+
+		// changes to these types must cause the component to be reprocessed
+		state.setDependencies(implClass, dependencies);
 
 		IProject project = typeBinding.getJavaElement().getJavaProject().getProject();
 		IFile file = PDEProject.getBundleRelativeFile(project, path);
-		IPath filePath = file.getFullPath();
 
-		processor.verifyOutputLocation(file);
+		ModelFileWriter writer = processor.getWriter();
+
+		// skip the model round trip if neither our inputs nor the file changed since we last generated it
+		long fingerprint = descriptor.getFingerprint();
+		if (dsKey.equals(state.getModelFile(implClass))
+				&& file.exists()
+				&& state.isUpToDate(implClass, fingerprint, file.getModificationStamp())) {
+			if (debug.isDebugging())
+				debug.traceEvent("Model is up to date: %s", file.getFullPath()); //$NON-NLS-1$
+
+			processor.getMetrics().increment(BuildMetrics.Counter.componentsUpToDate);
+			return;
+		}
 
 		// handle file move/rename
 		String oldPath = state.getModelFile(implClass);
 		if (oldPath != null && !oldPath.equals(dsKey) && !file.exists()) {
 			IFile oldFile = PDEProject.getBundleRelativeFile(project, Path.fromPortableString(oldPath));
-			if (oldFile.exists()) {
+			if (oldFile.exists())
+				writer.move(oldFile, file);
+		}
+
+		// the descriptor is frozen, so reconciliation can proceed while parsing continues
+		final ComponentDescriptor fDescriptor = descriptor;
+		final IFile fFile = file;
+		processor.getReconciler().submit(file, new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
 				try {
-					oldFile.move(file.getFullPath(), true, true, null);
+					reconcileComponent(fDescriptor, fFile);
 				} catch (CoreException e) {
-					Activator.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, String.format("Unable to move model file from '%s' to '%s'.", oldPath, file.getFullPath()), e)); //$NON-NLS-1$
+					Activator.log(e);
+				} finally {
+					processor.getMetrics().addTime(BuildMetrics.Phase.reconcileComponent, System.nanoTime() - start);
 				}
 			}
-		}
+		});
+	}
+
+	private void reconcileComponent(ComponentDescriptor descriptor, IFile file) throws CoreException {
+		String implClass = descriptor.getImplClass();
+		long fingerprint = descriptor.getFingerprint();
+		ModelFileWriter writer = processor.getWriter();
 
-		ITextFileBufferManager bufferManager = FileBuffers.getTextFileBufferManager();
-		bufferManager.connect(filePath, LocationKind.IFILE, null);
-		ITextFileBuffer buffer = bufferManager.getTextFileBuffer(filePath, LocationKind.IFILE);
-		if (buffer.isDirty())
-			buffer.commit(null, true);
+		// note: generated content is staged, and written out at the end of the build
+		String content = writer.read(file);
 
-		IDocument document = buffer.getDocument();
+		// nothing to reconcile against -- write the document directly, bypassing the model
+		if (content.length() == 0) {
+			if (debug.isDebugging())
+				debug.traceEvent("Writing new model: %s", file.getFullPath()); //$NON-NLS-1$
+
+			writer.write(file, new ComponentDescriptorWriter().write(descriptor));
+			writer.setFingerprint(file, implClass, fingerprint);
+			processor.getMetrics().increment(BuildMetrics.Counter.componentsGenerated);
+			return;
+		}
+
+		IDocument document = new Document(content);
 
 		final DSModel dsModel = new DSModel(document, true);
 		dsModel.setUnderlyingResource(file);
@@ -507,75 +496,40 @@ class AnnotationVisitor extends ASTVisitor {
 		});
 
 		try {
-			processComponent(dsModel, type, typeBinding, annotation, annotationBinding, params, name, implClass, problems);
+			applyComponent(dsModel, descriptor);
 
 			TextEdit[] edits = dsModel.getLastTextChangeListener().getTextOperations();
-			if (edits.length > 0) {
-				if (debug.isDebugging())
-					debug.trace(String.format("Saving model: %s", file.getFullPath())); //$NON-NLS-1$
-
-				final MultiTextEdit edit = new MultiTextEdit();
-				edit.addChildren(edits);
-
-				if (buffer.isSynchronizationContextRequested()) {
-					final IDocument doc = document;
-					final CoreException[] ex = new CoreException[1];
-					final CountDownLatch latch = new CountDownLatch(1);
-					bufferManager.execute(new Runnable() {
-						public void run() {
-							try {
-								performEdit(doc, edit);
-							} catch (CoreException e) {
-								ex[0] = e;
-							}
-
-							latch.countDown();
-						}
-					});
-
-					try {
-						latch.await();
-					} catch (InterruptedException e) {
-						if (debug.isDebugging())
-							debug.trace("Interrupted while waiting for edits to complete on display thread.", e); //$NON-NLS-1$
-					}
-
-					if (ex[0] != null)
-						throw ex[0];
-				} else {
-					performEdit(document, edit);
-				}
-
-				buffer.commit(null, true);
-			}
+			if (edits.length > 0)
+				writer.write(file, ((ReplaceEdit) edits[0]).getText());
 		} finally {
 			dsModel.dispose();
-			bufferManager.disconnect(buffer.getLocation(), LocationKind.IFILE, null);
 		}
+
+		writer.setFingerprint(file, implClass, fingerprint);
+		processor.getMetrics().increment(BuildMetrics.Counter.componentsGenerated);
 	}
 
-	private void performEdit(IDocument document, TextEdit edit) throws CoreException {
-		DocumentRewriteSession session = null;
-		try {
-			if (document instanceof IDocumentExtension4) {
-				session = ((IDocumentExtension4) document).startRewriteSession(DocumentRewriteSessionType.UNRESTRICTED);
-			}
+	private ComponentDescriptor resolveComponent(TypeDeclaration type, ITypeBinding typeBinding, Annotation annotation, IAnnotationBinding annotationBinding, Collection<DSAnnotationProblem> problems) {
+		ComponentDescriptor descriptor = new ComponentDescriptor();
 
-			LinkedModeModel.closeAllModels(document);
-			edit.apply(document);
-		} catch (MalformedTreeException e) {
-			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Error applying changes to component model.", e)); //$NON-NLS-1$
-		} catch (BadLocationException e) {
-			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Error applying changes to component model.", e)); //$NON-NLS-1$
-		} finally {
-			if (session != null) {
-				((IDocumentExtension4) document).stopRewriteSession(session);
-			}
+		HashMap<String, Object> params = new HashMap<String, Object>();
+		for (IMemberValuePairBinding pair : annotationBinding.getDeclaredMemberValuePairs()) {
+			params.put(pair.getName(), pair.getValue());
 		}
-	}
 
-	private void processComponent(IDSModel model, TypeDeclaration type, ITypeBinding typeBinding, Annotation annotation, IAnnotationBinding annotationBinding, Map<String, ?> params, String name, String implClass, Collection<DSAnnotationProblem> problems) {
+		String implClass = typeBinding.getBinaryName();
+		descriptor.setImplClass(implClass);
+
+		// determine component name
+		String name = implClass;
 		Object value;
+		if ((value = params.get("name")) instanceof String) { //$NON-NLS-1$
+			name = (String) value;
+			validateComponentName(annotation, name, problems);
+		}
+
+		descriptor.setName(name);
+
 		Collection<String> services;
 		if ((value = params.get("service")) instanceof Object[]) { //$NON-NLS-1$
 			Object[] elements = (Object[]) value;
@@ -606,28 +560,26 @@ class AnnotationVisitor extends ASTVisitor {
 			}
 		}
 
-		String factory = null;
+		descriptor.setServices(services);
+
 		if ((value = params.get("factory")) instanceof String) { //$NON-NLS-1$
-			factory = (String) value;
+			String factory = (String) value;
 			validateComponentFactory(annotation, factory, problems);
+			descriptor.setFactory(factory);
 		}
 
-		Boolean serviceFactory = null;
 		if ((value = params.get("servicefactory")) instanceof Boolean) { //$NON-NLS-1$
-			serviceFactory = (Boolean) value;
+			descriptor.setServiceFactory((Boolean) value);
 		}
 
-		Boolean enabled = null;
 		if ((value = params.get("enabled")) instanceof Boolean) { //$NON-NLS-1$
-			enabled = (Boolean) value;
+			descriptor.setEnabled((Boolean) value);
 		}
 
-		Boolean immediate = null;
 		if ((value = params.get("immediate")) instanceof Boolean) { //$NON-NLS-1$
-			immediate = (Boolean) value;
+			descriptor.setImmediate((Boolean) value);
 		}
 
-		String[] properties;
 		if ((value = params.get("property")) instanceof Object[]) { //$NON-NLS-1$
 			Object[] elements = (Object[]) value;
 			ArrayList<String> list = new ArrayList<String>(elements.length);
@@ -636,12 +588,11 @@ class AnnotationVisitor extends ASTVisitor {
 					list.add((String) elements[i]);
 			}
 
-			properties = list.toArray(new String[list.size()]);
-		} else {
-			properties = new String[0];
+			String[] properties = list.toArray(new String[list.size()]);
+			validateComponentProperties(annotation, properties, problems);
+			descriptor.setProperties(properties);
 		}
 
-		String[] propertyFiles;
 		if ((value = params.get("properties")) instanceof Object[]) { //$NON-NLS-1$
 			Object[] elements = (Object[]) value;
 			ArrayList<String> list = new ArrayList<String>(elements.length);
@@ -650,52 +601,166 @@ class AnnotationVisitor extends ASTVisitor {
 					list.add((String) elements[i]);
 			}
 
-			propertyFiles = list.toArray(new String[list.size()]);
+			String[] propertyFiles = list.toArray(new String[list.size()]);
 			validateComponentPropertyFiles(annotation, ((IType) typeBinding.getJavaElement()).getJavaProject().getProject(), propertyFiles, problems);
-		} else {
-			propertyFiles = new String[0];
+			descriptor.setPropertyFiles(propertyFiles);
 		}
 
-		String configPolicy = null;
 		if ((value = params.get("configurationPolicy")) instanceof IVariableBinding) { //$NON-NLS-1$
 			IVariableBinding configPolicyBinding = (IVariableBinding) value;
 			ConfigurationPolicy configPolicyLiteral = ConfigurationPolicy.valueOf(configPolicyBinding.getName());
 			if (configPolicyLiteral != null)
-				configPolicy = configPolicyLiteral.toString();
+				descriptor.setConfigPolicy(configPolicyLiteral.toString());
 		}
 
-		String configPid = null;
+		boolean requiresV12 = false;
 		if ((value = params.get("configurationPid")) instanceof String) { //$NON-NLS-1$
-			configPid = (String) value;
+			String configPid = (String) value;
 			validateComponentConfigPID(annotation, configPid, problems);
+			descriptor.setConfigPid(configPid);
+			requiresV12 = true;
 		}
 
+		String activate = null;
+		Annotation activateAnnotation = null;
+		String deactivate = null;
+		Annotation deactivateAnnotation = null;
+		String modified = null;
+		Annotation modifiedAnnotation = null;
+
+		HashMap<String, Annotation> referenceNames = new HashMap<String, Annotation>();
+
+		for (MethodDeclaration method : type.getMethods()) {
+			for (Object modifier : method.modifiers()) {
+				if (!(modifier instanceof Annotation))
+					continue;
+
+				Annotation methodAnnotation = (Annotation) modifier;
+				IAnnotationBinding methodAnnotationBinding = methodAnnotation.resolveAnnotationBinding();
+				if (methodAnnotationBinding == null) {
+					if (debug.isDebugging())
+						debug.traceEvent("Unable to resolve binding for annotation: %s", methodAnnotation); //$NON-NLS-1$
+
+					continue;
+				}
+
+				String annotationName = methodAnnotationBinding.getAnnotationType().getQualifiedName();
+
+				if (ACTIVATE_ANNOTATION.equals(annotationName)) {
+					if (activate == null) {
+						activate = method.getName().getIdentifier();
+						activateAnnotation = methodAnnotation;
+						validateLifeCycleMethod(methodAnnotation, "activate", method, problems); //$NON-NLS-1$
+					} else if (!errorLevel.isNone()) {
+						reportProblem(methodAnnotation, null, problems, Messages.AnnotationProcessor_duplicateActivateMethod, method.getName().getIdentifier());
+						if (activateAnnotation != null) {
+							reportProblem(activateAnnotation, null, problems, Messages.AnnotationProcessor_duplicateActivateMethod, activate);
+							activateAnnotation = null;
+						}
+					}
+
+					continue;
+				}
+
+				if (DEACTIVATE_ANNOTATION.equals(annotationName)) {
+					if (deactivate == null) {
+						deactivate = method.getName().getIdentifier();
+						deactivateAnnotation = methodAnnotation;
+						validateLifeCycleMethod(methodAnnotation, "deactivate", method, problems); //$NON-NLS-1$
+					} else if (!errorLevel.isNone()) {
+						reportProblem(methodAnnotation, null, problems, Messages.AnnotationProcessor_duplicateDeactivateMethod, method.getName().getIdentifier());
+						if (deactivateAnnotation != null) {
+							reportProblem(deactivateAnnotation, null, problems, Messages.AnnotationProcessor_duplicateDeactivateMethod, deactivate);
+							deactivateAnnotation = null;
+						}
+					}
+
+					continue;
+				}
+
+				if (MODIFIED_ANNOTATION.equals(annotationName)) {
+					if (modified == null) {
+						modified = method.getName().getIdentifier();
+						modifiedAnnotation = methodAnnotation;
+						validateLifeCycleMethod(methodAnnotation, "modified", method, problems); //$NON-NLS-1$
+					} else if (!errorLevel.isNone()) {
+						reportProblem(methodAnnotation, null, problems, Messages.AnnotationProcessor_duplicateModifiedMethod, method.getName().getIdentifier());
+						if (modifiedAnnotation != null) {
+							reportProblem(modifiedAnnotation, null, problems, Messages.AnnotationProcessor_duplicateModifiedMethod, modified);
+							modifiedAnnotation = null;
+						}
+					}
+
+					continue;
+				}
+
+				if (REFERENCE_ANNOTATION.equals(annotationName)) {
+					IMethodBinding methodBinding = method.resolveBinding();
+					if (methodBinding == null) {
+						if (debug.isDebugging())
+							debug.traceEvent("Unable to resolve binding for method: %s", method); //$NON-NLS-1$
+					} else {
+						ComponentDescriptor.Reference reference = resolveReference(method, methodBinding, methodAnnotation, methodAnnotationBinding, referenceNames, problems);
+						descriptor.getReferences().add(reference);
+						requiresV12 |= reference.getPolicyOption() != null || reference.getUpdated() != null;
+					}
+
+					continue;
+				}
+			}
+		}
+
+		descriptor.setActivate(activate);
+		if (activate == null)
+			descriptor.setImplicitActivate(hasLifeCycleMethod(typeBinding, "activate")); //$NON-NLS-1$
+
+		descriptor.setDeactivate(deactivate);
+		if (deactivate == null)
+			descriptor.setImplicitDeactivate(hasLifeCycleMethod(typeBinding, "deactivate")); //$NON-NLS-1$
+
+		descriptor.setModified(modified);
+
+		if ((value = params.get("xmlns")) instanceof String) { //$NON-NLS-1$
+			String xmlns = (String) value;
+			validateComponentXMLNS(annotation, xmlns, requiresV12, problems);
+			descriptor.setXMLNS(xmlns);
+		}
+
+		return descriptor;
+	}
+
+	void applyComponent(IDSModel model, ComponentDescriptor descriptor) {
 		IDSComponent component = model.getDSComponent();
 
+		Boolean enabled = descriptor.getEnabled();
 		if (enabled == null) {
 			removeAttribute(component, IDSConstants.ATTRIBUTE_COMPONENT_ENABLED, IDSConstants.VALUE_TRUE);
 		} else {
 			component.setEnabled(enabled.booleanValue());
 		}
 
+		String name = descriptor.getName();
 		if (name == null) {
 			removeAttribute(component, IDSConstants.ATTRIBUTE_COMPONENT_NAME, null);
 		} else {
 			component.setAttributeName(name);
 		}
 
+		String factory = descriptor.getFactory();
 		if (factory == null) {
 			removeAttribute(component, IDSConstants.ATTRIBUTE_COMPONENT_FACTORY, null);
 		} else {
 			component.setFactory(factory);
 		}
 
+		Boolean immediate = descriptor.getImmediate();
 		if (immediate == null) {
 			removeAttribute(component, IDSConstants.ATTRIBUTE_COMPONENT_IMMEDIATE, null);
 		} else {
 			component.setImmediate(immediate.booleanValue());
 		}
 
+		String configPolicy = descriptor.getConfigPolicy();
 		if (configPolicy == null) {
 			removeAttribute(component, IDSConstants.ATTRIBUTE_COMPONENT_CONFIGURATION_POLICY, IDSConstants.VALUE_CONFIGURATION_POLICY_OPTIONAL);
 		} else {
@@ -704,61 +769,30 @@ class AnnotationVisitor extends ASTVisitor {
 
 		IDSDocumentFactory dsFactory = model.getFactory();
 
+		String[] properties = descriptor.getProperties();
 		IDSProperty[] propElements = component.getPropertyElements();
 		if (properties.length == 0) {
 			removeChildren(component, Arrays.asList(propElements));
 		} else {
 			// build up new property elements
-			LinkedHashMap<String, IDSProperty> map = new LinkedHashMap<String, IDSProperty>(properties.length);
-			for (int i = 0; i < properties.length; ++i) {
-				String propertyStr = properties[i];
-				String[] pair = propertyStr.split("=", 2); //$NON-NLS-1$
-				int colon = pair[0].indexOf(':');
-				String propertyName, propertyType;
-				if (colon == -1) {
-					propertyName = pair[0];
-					propertyType = null;
-				} else {
-					propertyName = pair[0].substring(0, colon);
-					propertyType = pair[0].substring(colon + 1);
-				}
-
-				String propertyValue = pair.length > 1 ? pair[1].trim() : null;
-
-				IDSProperty property = map.get(propertyName);
-				if (property == null) {
-					// create a new property
-					property = dsFactory.createProperty();
-					map.put(propertyName, property);
-					property.setPropertyName(propertyName);
-					if (propertyType == null)
-						removeAttribute(property, IDSConstants.ATTRIBUTE_PROPERTY_TYPE, null);	 // just remove the attribute completely so we can detect changes when reconciling
-					else
-						property.setPropertyType(propertyType);
-
-					property.setPropertyValue(propertyValue);
-					validateComponentProperty(annotation, propertyName, propertyType, propertyValue, i, problems);
-				} else {
-					// property is multi-valued
-					String content = property.getPropertyElemBody();
-					if (content == null) {
-						content = property.getPropertyValue();
-						property.setPropertyElemBody(content);
-						property.setPropertyValue(null);
-					}
-
-					if (!errorLevel.isNone()) {
-						String expected = property.getPropertyType() == null || property.getPropertyType().length() == 0 || IDSConstants.VALUE_PROPERTY_TYPE_STRING.equals(property.getPropertyType()) ? Messages.AnnotationProcessor_stringOrEmpty : property.getPropertyType();
-						String actual = propertyType == null || IDSConstants.VALUE_PROPERTY_TYPE_STRING.equals(propertyType) ? Messages.AnnotationProcessor_stringOrEmpty : propertyType;
-						if (!actual.equals(expected))
-							reportProblem(annotation, "property", i, problems, NLS.bind(Messages.AnnotationProcessor_inconsistentComponentPropertyType, actual, expected), actual); //$NON-NLS-1$
-						else
-							validateComponentProperty(annotation, propertyName, propertyType, propertyValue, i, problems);
-					}
+			List<ComponentDescriptor.PropertyElement> propertyElements = descriptor.getPropertyElements();
+			LinkedHashMap<String, IDSProperty> map = new LinkedHashMap<String, IDSProperty>(propertyElements.size());
+			for (ComponentDescriptor.PropertyElement propertyElement : propertyElements) {
+				String propertyName = propertyElement.getName();
+				String propertyType = propertyElement.getType();
+				IDSProperty property = dsFactory.createProperty();
+				map.put(propertyName, property);
+				property.setPropertyName(propertyName);
+				if (propertyType == null)
+					removeAttribute(property, IDSConstants.ATTRIBUTE_PROPERTY_TYPE, null);	 // just remove the attribute completely so we can detect changes when reconciling
+				else
+					property.setPropertyType(propertyType);
 
-					if (propertyValue != null)
-						property.setPropertyElemBody(content + "\n" + pair[1]); //$NON-NLS-1$
-				}
+				String body = propertyElement.getBody();
+				if (body == null)
+					property.setPropertyValue(propertyElement.getValue());
+				else
+					property.setPropertyElemBody(body);
 			}
 
 			// reconcile against existing property elements
@@ -807,6 +841,7 @@ class AnnotationVisitor extends ASTVisitor {
 			addOrMoveChildren(component, propList, firstPos);
 		}
 
+		String[] propertyFiles = descriptor.getPropertyFiles();
 		IDSProperties[] propFileElements = component.getPropertiesElements();
 		if (propertyFiles.length == 0) {
 			removeChildren(component, Arrays.asList(propFileElements));
@@ -842,6 +877,7 @@ class AnnotationVisitor extends ASTVisitor {
 			addOrMoveChildren(component, propFileList, firstPos);
 		}
 
+		Collection<String> services = descriptor.getServices();
 		IDSService service = component.getService();
 		if (services.isEmpty()) {
 			if (service != null)
@@ -877,6 +913,7 @@ class AnnotationVisitor extends ASTVisitor {
 
 			addOrMoveChildren(service, provideList, firstPos);
 
+			Boolean serviceFactory = descriptor.getServiceFactory();
 			if (serviceFactory == null) {
 				removeAttribute(service, IDSConstants.ATTRIBUTE_SERVICE_FACTORY, IDSConstants.VALUE_FALSE);
 			} else {
@@ -885,15 +922,8 @@ class AnnotationVisitor extends ASTVisitor {
 		}
 
 		boolean requiresV12 = false;
-		String activate = null;
-		Annotation activateAnnotation = null;
-		String deactivate = null;
-		Annotation deactivateAnnotation = null;
-		String modified = null;
-		Annotation modifiedAnnotation = null;
 
-		ArrayList<IDSReference> references = new ArrayList<IDSReference>();
-		HashMap<String, Annotation> referenceNames = new HashMap<String, Annotation>();
+		ArrayList<IDSReference> references = new ArrayList<IDSReference>(descriptor.getReferences().size());
 		IDSReference[] refElements = component.getReferences();
 
 		HashMap<String, IDSReference> refMap = new HashMap<String, IDSReference>(refElements.length);
@@ -901,108 +931,43 @@ class AnnotationVisitor extends ASTVisitor {
 			refMap.put(refElement.getReferenceBind(), refElement);
 		}
 
-		for (MethodDeclaration method : type.getMethods()) {
-			for (Object modifier : method.modifiers()) {
-				if (!(modifier instanceof Annotation))
-					continue;
-
-				Annotation methodAnnotation = (Annotation) modifier;
-				IAnnotationBinding methodAnnotationBinding = methodAnnotation.resolveAnnotationBinding();
-				if (methodAnnotationBinding == null) {
-					if (debug.isDebugging())
-						debug.trace(String.format("Unable to resolve binding for annotation: %s", methodAnnotation)); //$NON-NLS-1$
-
-					continue;
-				}
-
-				String annotationName = methodAnnotationBinding.getAnnotationType().getQualifiedName();
-
-				if (ACTIVATE_ANNOTATION.equals(annotationName)) {
-					if (activate == null) {
-						activate = method.getName().getIdentifier();
-						activateAnnotation = methodAnnotation;
-						validateLifeCycleMethod(methodAnnotation, "activate", method, problems); //$NON-NLS-1$
-					} else if (!errorLevel.isNone()) {
-						reportProblem(methodAnnotation, null, problems, Messages.AnnotationProcessor_duplicateActivateMethod, method.getName().getIdentifier());
-						if (activateAnnotation != null) {
-							reportProblem(activateAnnotation, null, problems, Messages.AnnotationProcessor_duplicateActivateMethod, activate);
-							activateAnnotation = null;
-						}
-					}
-
-					continue;
-				}
-
-				if (DEACTIVATE_ANNOTATION.equals(annotationName)) {
-					if (deactivate == null) {
-						deactivate = method.getName().getIdentifier();
-						deactivateAnnotation = methodAnnotation;
-						validateLifeCycleMethod(methodAnnotation, "deactivate", method, problems); //$NON-NLS-1$
-					} else if (!errorLevel.isNone()) {
-						reportProblem(methodAnnotation, null, problems, Messages.AnnotationProcessor_duplicateDeactivateMethod, method.getName().getIdentifier());
-						if (deactivateAnnotation != null) {
-							reportProblem(deactivateAnnotation, null, problems, Messages.AnnotationProcessor_duplicateDeactivateMethod, deactivate);
-							deactivateAnnotation = null;
-						}
-					}
-
-					continue;
-				}
-
-				if (MODIFIED_ANNOTATION.equals(annotationName)) {
-					if (modified == null) {
-						modified = method.getName().getIdentifier();
-						modifiedAnnotation = methodAnnotation;
-						validateLifeCycleMethod(methodAnnotation, "modified", method, problems); //$NON-NLS-1$
-					} else if (!errorLevel.isNone()) {
-						reportProblem(methodAnnotation, null, problems, Messages.AnnotationProcessor_duplicateModifiedMethod, method.getName().getIdentifier());
-						if (modifiedAnnotation != null) {
-							reportProblem(modifiedAnnotation, null, problems, Messages.AnnotationProcessor_duplicateModifiedMethod, modified);
-							modifiedAnnotation = null;
-						}
-					}
-
-					continue;
-				}
-
-				if (REFERENCE_ANNOTATION.equals(annotationName)) {
-					IMethodBinding methodBinding = method.resolveBinding();
-					if (methodBinding == null) {
-						if (debug.isDebugging())
-							debug.trace(String.format("Unable to resolve binding for method: %s", method)); //$NON-NLS-1$
-					} else {
-						requiresV12 |= processReference(method, methodBinding, methodAnnotation, methodAnnotationBinding, refMap, dsFactory, references, referenceNames, problems);
-					}
+		for (ComponentDescriptor.Reference referenceDescriptor : descriptor.getReferences()) {
+			IDSReference reference = refMap.remove(referenceDescriptor.getBind());
+			if (reference == null)
+				reference = dsFactory.createReference();
 
-					continue;
-				}
-			}
+			references.add(reference);
+			requiresV12 |= applyReference(reference, referenceDescriptor);
 		}
 
+		String activate = descriptor.getActivate();
 		if (activate == null) {
 			// only remove activate="activate" if method not found
 			if (!"activate".equals(component.getActivateMethod()) //$NON-NLS-1$
-					|| !hasLifeCycleMethod(typeBinding, "activate")) //$NON-NLS-1$
+					|| !descriptor.hasImplicitActivate())
 				removeAttribute(component, IDSConstants.ATTRIBUTE_COMPONENT_ACTIVATE, null); //$NON-NLS-1$
 		} else {
 			component.setActivateMethod(activate);
 		}
 
+		String deactivate = descriptor.getDeactivate();
 		if (deactivate == null) {
 			// only remove deactivate="deactivate" if method not found
 			if (!"deactivate".equals(component.getDeactivateMethod()) //$NON-NLS-1$
-					|| !hasLifeCycleMethod(typeBinding, "deactivate")) //$NON-NLS-1$
+					|| !descriptor.hasImplicitDeactivate())
 				removeAttribute(component, IDSConstants.ATTRIBUTE_COMPONENT_DEACTIVATE, null); //$NON-NLS-1$
 		} else {
 			component.setDeactivateMethod(deactivate);
 		}
 
+		String modified = descriptor.getModified();
 		if (modified == null) {
 			removeAttribute(component, IDSConstants.ATTRIBUTE_COMPONENT_MODIFIED, null);
 		} else {
 			component.setModifiedeMethod(modified);
 		}
 
+		String configPid = descriptor.getConfigPid();
 		if (configPid == null) {
 			removeAttribute(component, ATTRIBUTE_COMPONENT_CONFIGURATION_PID, null);
 		} else {
@@ -1040,15 +1005,11 @@ class AnnotationVisitor extends ASTVisitor {
 			component.setImplementation(impl);
 		}
 
-		impl.setClassName(implClass);
+		impl.setClassName(descriptor.getImplClass());
 
-		String xmlns = NAMESPACE_1_1;
-		if ((value = params.get("xmlns")) instanceof String) { //$NON-NLS-1$
-			xmlns = (String) value;
-			validateComponentXMLNS(annotation, xmlns, requiresV12, problems);
-		} else if (requiresV12) {
-			xmlns = NAMESPACE_1_2;
-		}
+		String xmlns = descriptor.getXMLNS();
+		if (xmlns == null)
+			xmlns = requiresV12 ? NAMESPACE_1_2 : NAMESPACE_1_1;
 
 		component.setNamespace(xmlns);
 	}
@@ -1107,7 +1068,7 @@ class AnnotationVisitor extends ASTVisitor {
 		}
 	}
 
-	private void moveChildNode(IDocumentObject obj, IDocumentElementNode node, int newRelativeIndex, boolean fireEvent) {
+	private void moveChildNode(IDSObject obj, IDocumentElementNode node, int newRelativeIndex, boolean fireEvent) {
 		if (newRelativeIndex == 1 || newRelativeIndex == -1) {
 			obj.moveChildNode(node, newRelativeIndex, fireEvent);
 			return;
@@ -1127,38 +1088,39 @@ class AnnotationVisitor extends ASTVisitor {
 		obj.addChildNode(clone, newIndex, fireEvent);
 	}
 
-	private IDocumentElementNode clone(IDocumentObject obj, IDocumentElementNode node) {
-		// note: same exact impl as DocumentObject.clone()
-		// but here the deserialized object will actually resolve successfully
-		// because our classloader (with DSPropery visible) will be on top of the stack
-		// yay for Java serialization, *sigh*
-		IDocumentElementNode clone = null;
-		try {
-			// Serialize
-			ByteArrayOutputStream bout = new ByteArrayOutputStream();
-			ObjectOutputStream out = new ObjectOutputStream(bout);
-			out.writeObject(node);
-			out.flush();
-			out.close();
-			byte[] bytes = bout.toByteArray();
-			// Deserialize
-			ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
-			ObjectInputStream in = new ObjectInputStream(bin);
-			clone = (IDocumentElementNode) in.readObject();
-			in.close();
-			// Reconnect
-			clone.reconnect(obj, obj.getSharedModel());
-		} catch (IOException e) {
-			if (debug.isDebugging())
-				debug.trace("Error cloning element.", e); //$NON-NLS-1$
-		} catch (ClassNotFoundException e) {
+	private IDocumentElementNode clone(IDSObject obj, IDocumentElementNode node) {
+		// note: unlike DocumentObject.clone(), copy the node structurally rather than round-trip it through Java serialization
+		Object factory = obj.getModel().getFactory();
+		if (!(factory instanceof IDocumentNodeFactory)) {
 			if (debug.isDebugging())
-				debug.trace("Error cloning element.", e); //$NON-NLS-1$
+				debug.traceEvent("Unable to clone element: %s", node.getXMLTagName()); //$NON-NLS-1$
+
+			return node;
 		}
 
+		IDocumentElementNode clone = copy((IDocumentNodeFactory) factory, node, obj);
+		clone.reconnect(obj, obj.getSharedModel());
 		return clone;
 	}
 
+	private IDocumentElementNode copy(IDocumentNodeFactory factory, IDocumentElementNode node, IDocumentElementNode parent) {
+		IDocumentElementNode copy = factory.createDocumentNode(node.getXMLTagName(), parent);
+
+		for (IDocumentAttributeNode attr : node.getNodeAttributes()) {
+			copy.setXMLAttribute(attr.getAttributeName(), attr.getAttributeValue());
+		}
+
+		IDocumentTextNode textNode = node.getTextNode();
+		if (textNode != null)
+			copy.addTextNode(factory.createDocumentTextNode(textNode.getText(), copy));
+
+		for (IDocumentElementNode child : node.getChildNodes()) {
+			copy.addChildNode(copy(factory, child, copy));
+		}
+
+		return copy;
+	}
+
 	private int indexOfLastPropertyOrProperties(IDSComponent component) {
 		int pos = -1;
 		IDSProperty[] propElements = component.getPropertyElements();
@@ -1219,33 +1181,51 @@ class AnnotationVisitor extends ASTVisitor {
 			reportProblem(annotation, "factory", problems, NLS.bind(Messages.AnnotationProcessor_invalidComponentFactoryName, factory), factory); //$NON-NLS-1$
 	}
 
+	private void validateComponentProperties(Annotation annotation, String[] properties, Collection<DSAnnotationProblem> problems) {
+		// values of multi-valued properties must all be of the type of the first one
+		HashMap<String, String> propertyTypes = new HashMap<String, String>(properties.length);
+		for (int i = 0; i < properties.length; ++i) {
+			String[] pair = properties[i].split("=", 2); //$NON-NLS-1$
+			int colon = pair[0].indexOf(':');
+			String propertyName, propertyType;
+			if (colon == -1) {
+				propertyName = pair[0];
+				propertyType = null;
+			} else {
+				propertyName = pair[0].substring(0, colon);
+				propertyType = pair[0].substring(colon + 1);
+			}
+
+			String propertyValue = pair.length > 1 ? pair[1].trim() : null;
+
+			if (!propertyTypes.containsKey(propertyName)) {
+				propertyTypes.put(propertyName, propertyType);
+				validateComponentProperty(annotation, propertyName, propertyType, propertyValue, i, problems);
+			} else if (!errorLevel.isNone()) {
+				String firstType = propertyTypes.get(propertyName);
+				String expected = firstType == null || firstType.length() == 0 || IDSConstants.VALUE_PROPERTY_TYPE_STRING.equals(firstType) ? Messages.AnnotationProcessor_stringOrEmpty : firstType;
+				String actual = propertyType == null || IDSConstants.VALUE_PROPERTY_TYPE_STRING.equals(propertyType) ? Messages.AnnotationProcessor_stringOrEmpty : propertyType;
+				if (!actual.equals(expected))
+					reportProblem(annotation, "property", i, problems, NLS.bind(Messages.AnnotationProcessor_inconsistentComponentPropertyType, actual, expected), actual); //$NON-NLS-1$
+				else
+					validateComponentProperty(annotation, propertyName, propertyType, propertyValue, i, problems);
+			}
+		}
+	}
+
 	private void validateComponentProperty(Annotation annotation, String name, String type, String value, int index, Collection<DSAnnotationProblem> problems) {
 		if (errorLevel.isNone())
 			return;
 
-		if (PROPERTY_TYPES.contains(type)) {
+		PropertyValueValidator validator = PropertyValueValidator.forType(type);
+		if (validator != null) {
 			if (name == null || name.trim().length() == 0)
 				reportProblem(annotation, "property", index, problems, Messages.AnnotationProcessor_invalidComponentProperty_nameRequired, name); //$NON-NLS-1$
 
 			if (value == null) {
 				reportProblem(annotation, "property", index, problems, Messages.AnnotationProcessor_invalidComponentProperty_valueRequired, name); //$NON-NLS-1$
-			} else {
-				try {
-					if (IDSConstants.VALUE_PROPERTY_TYPE_LONG.equals(type))
-						Long.valueOf(value);
-					else if (IDSConstants.VALUE_PROPERTY_TYPE_DOUBLE.equals(type))
-						Double.valueOf(value);
-					else if (IDSConstants.VALUE_PROPERTY_TYPE_FLOAT.equals(type))
-						Float.valueOf(value);
-					else if (IDSConstants.VALUE_PROPERTY_TYPE_INTEGER.equals(type) || IDSConstants.VALUE_PROPERTY_TYPE_CHAR.equals(type))
-						Integer.valueOf(value);
-					else if (IDSConstants.VALUE_PROPERTY_TYPE_BYTE.equals(type))
-						Byte.valueOf(value);
-					else if (IDSConstants.VALUE_PROPERTY_TYPE_SHORT.equals(type))
-						Short.valueOf(value);
-				} catch (NumberFormatException e) {
-					reportProblem(annotation, "property", index, problems, NLS.bind(Messages.AnnotationProcessor_invalidComponentPropertyValue, type, value), String.valueOf(value)); //$NON-NLS-1$
-				}
+			} else if (!validator.isValid(value)) {
+				reportProblem(annotation, "property", index, problems, NLS.bind(Messages.AnnotationProcessor_invalidComponentPropertyValue, type, value), String.valueOf(value)); //$NON-NLS-1$
 			}
 		} else {
 			reportProblem(annotation, "property", index, problems, NLS.bind(Messages.AnnotationProcessor_invalidComponentPropertyType, type), String.valueOf(type)); //$NON-NLS-1$
@@ -1281,7 +1261,7 @@ class AnnotationVisitor extends ASTVisitor {
 		IMethodBinding methodBinding = method.resolveBinding();
 		if (methodBinding == null) {
 			if (debug.isDebugging())
-				debug.trace(String.format("Unable to resolve binding for method: %s", method)); //$NON-NLS-1$
+				debug.traceEvent("Unable to resolve binding for method: %s", method); //$NON-NLS-1$
 
 			return;
 		}
@@ -1336,19 +1316,16 @@ class AnnotationVisitor extends ASTVisitor {
 	}
 
 	private boolean hasLifeCycleMethod(ITypeBinding componentClass, String methodName) {
-		for (IMethodBinding methodBinding : componentClass.getDeclaredMethods()) {
-			if (methodName.equals(methodBinding.getName())
-					&& Void.TYPE.getName().equals(methodBinding.getReturnType().getName())) {
-				ITypeBinding[] paramTypeBindings = methodBinding.getParameterTypes();
-
+		for (MethodIndex.Method method : processor.getMethodIndex().getType(componentClass).getMethods(methodName)) {
+			if (method.isVoid()) {
 				// every argument must be either Map, ComponentContext, or BundleContext
 				boolean hasMap = false;
 				boolean hasCompCtx = false;
 				boolean hasBundleCtx = false;
 				boolean hasInt = false;
 				boolean isInvalid = false;
-				for (ITypeBinding paramTypeBinding : paramTypeBindings) {
-					String paramTypeName = paramTypeBinding.getErasure().getQualifiedName();
+				for (int i = 0, n = method.getParameterCount(); i < n; ++i) {
+					String paramTypeName = method.getParameterTypeName(i);
 
 					if (Map.class.getName().equals(paramTypeName)) {
 						if (hasMap)
@@ -1387,7 +1364,7 @@ class AnnotationVisitor extends ASTVisitor {
 		return false;
 	}
 
-	private boolean processReference(MethodDeclaration method, IMethodBinding methodBinding, Annotation annotation, IAnnotationBinding annotationBinding, Map<String, IDSReference> refMap, IDSDocumentFactory factory, Collection<IDSReference> collector, Map<String, Annotation> names, Collection<DSAnnotationProblem> problems) {
+	private ComponentDescriptor.Reference resolveReference(MethodDeclaration method, IMethodBinding methodBinding, Annotation annotation, IAnnotationBinding annotationBinding, Map<String, Annotation> names, Collection<DSAnnotationProblem> problems) {
 		HashMap<String, Object> params = new HashMap<String, Object>();
 		for (IMemberValuePairBinding pair : annotationBinding.getDeclaredMemberValuePairs()) {
 			params.put(pair.getName(), pair.getValue());
@@ -1501,7 +1478,7 @@ class AnnotationVisitor extends ASTVisitor {
 			IMethodBinding unbindMethod = findUnbindMethod(methodBinding.getDeclaringClass(), serviceType, unbindCandidate, false);
 			if (unbindMethod == null) {
 				unbind = null;
-				reportProblem(annotation, null, missingUnbindMethodLevel, problems, NLS.bind(Messages.AnnotationProcessor_noImplicitReferenceUnbind, unbindCandidate), unbindCandidate);
+				reportProblem(annotation, null, missingUnbindMethodLevel, Activator.PREF_MISSING_UNBIND_METHOD_ERROR_LEVEL, problems, NLS.bind(Messages.AnnotationProcessor_noImplicitReferenceUnbind, unbindCandidate), unbindCandidate);
 			} else {
 				unbind = unbindMethod.getName();
 			}
@@ -1548,57 +1525,72 @@ class AnnotationVisitor extends ASTVisitor {
 				updated = updatedMethod.getName();
 		}
 
-		IDSReference reference = refMap.remove(methodName);
-		if (reference == null) {
-			reference = factory.createReference();
-		}
+		ComponentDescriptor.Reference reference = new ComponentDescriptor.Reference(methodName);
+		reference.setName(name);
+		reference.setService(service);
+		reference.setCardinality(cardinality);
+		reference.setPolicy(policy);
+		reference.setTarget(target);
+		reference.setUnbind(unbind);
+		reference.setPolicyOption(policyOption);
+		reference.setUpdated(updated);
 
-		collector.add(reference);
+		return reference;
+	}
 
-		reference.setReferenceBind(methodName);
+	private boolean applyReference(IDSReference reference, ComponentDescriptor.Reference descriptor) {
+		reference.setReferenceBind(descriptor.getBind());
 
+		String name = descriptor.getName();
 		if (name == null) {
 			removeAttribute(reference, IDSConstants.ATTRIBUTE_REFERENCE_NAME, null);
 		} else {
 			reference.setReferenceName(name);
 		}
 
+		String service = descriptor.getService();
 		if (service == null) {
 			removeAttribute(reference, IDSConstants.ATTRIBUTE_REFERENCE_INTERFACE, null);
 		} else {
 			reference.setReferenceInterface(service);
 		}
 
+		String cardinality = descriptor.getCardinality();
 		if (cardinality == null) {
 			removeAttribute(reference, IDSConstants.ATTRIBUTE_REFERENCE_CARDINALITY, IDSConstants.VALUE_REFERENCE_CARDINALITY_ONE_ONE);
 		} else {
 			reference.setReferenceCardinality(cardinality);
 		}
 
+		String policy = descriptor.getPolicy();
 		if (policy == null) {
 			removeAttribute(reference, IDSConstants.ATTRIBUTE_REFERENCE_POLICY, IDSConstants.VALUE_REFERENCE_POLICY_STATIC);
 		} else {
 			reference.setReferencePolicy(policy);
 		}
 
+		String target = descriptor.getTarget();
 		if (target == null) {
 			removeAttribute(reference, IDSConstants.ATTRIBUTE_REFERENCE_TARGET, null);
 		} else {
 			reference.setReferenceTarget(target);
 		}
 
+		String unbind = descriptor.getUnbind();
 		if (unbind == null) {
 			removeAttribute(reference, IDSConstants.ATTRIBUTE_REFERENCE_UNBIND, null);
 		} else {
 			reference.setReferenceUnbind(unbind);
 		}
 
+		String policyOption = descriptor.getPolicyOption();
 		if (policyOption == null) {
 			removeAttribute(reference, ATTRIBUTE_REFERENCE_POLICY_OPTION, VALUE_REFERENCE_POLICY_OPTION_RELUCTANT);
 		} else {
 			reference.setXMLAttribute(ATTRIBUTE_REFERENCE_POLICY_OPTION, policyOption);
 		}
 
+		String updated = descriptor.getUpdated();
 		if (updated == null) {
 			removeAttribute(reference, ATTRIBUTE_REFERENCE_UPDATED, null);
 		} else {
@@ -1681,7 +1673,8 @@ class AnnotationVisitor extends ASTVisitor {
 	}
 
 	private IMethodBinding findUnbindMethod(ITypeBinding componentClass, ITypeBinding serviceType, String name, boolean recurse) {
-		ITypeBinding testedClass = componentClass;
+		MethodIndex.Type componentType = processor.getMethodIndex().getType(componentClass);
+		MethodIndex.Type testedClass = componentType;
 
 		IMethodBinding candidate = null;
 		int priority = 0;
@@ -1691,93 +1684,97 @@ class AnnotationVisitor extends ASTVisitor {
 		// 2: <assignment-compatible-type>
 		// 3: <exact-type>
 		do {
-			for (IMethodBinding declaredMethod : testedClass.getDeclaredMethods()) {
-				if (name.equals(declaredMethod.getName())
-						&& Void.TYPE.getName().equals(declaredMethod.getReturnType().getName())
-						&& (testedClass == componentClass
-						|| Modifier.isPublic(declaredMethod.getModifiers())
-						|| Modifier.isProtected(declaredMethod.getModifiers())
-						|| (!Modifier.isPrivate(declaredMethod.getModifiers())
-								&& testedClass.getPackage().isEqualTo(componentClass.getPackage())))) {
-					ITypeBinding[] paramTypes = declaredMethod.getParameterTypes();
-					if (paramTypes.length == 1) {
-						if (ServiceReference.class.getName().equals(paramTypes[0].getErasure().getQualifiedName()))
-							// we have the winner
-							return declaredMethod;
-
-						if (priority < 3 && serviceType != null && serviceType.isEqualTo(paramTypes[0]))
-							priority = 3;
-						else if (priority < 2 && serviceType != null && serviceType.isAssignmentCompatible(paramTypes[0]))
-							priority = 2;
-						else
-							continue;
-
-						// we have a (better) candidate
-						candidate = declaredMethod;
-					} else if (paramTypes.length == 2) {
-						if (priority < 1
-								&& serviceType != null && serviceType.isEqualTo(paramTypes[0])
-								&& Map.class.getName().equals(paramTypes[1].getErasure().getQualifiedName()))
-							priority = 1;
-						else if (candidate != null
-								|| !(serviceType != null && serviceType.isAssignmentCompatible(paramTypes[0]))
-								|| !Map.class.getName().equals(paramTypes[1].getErasure().getQualifiedName()))
-							continue;
+			for (MethodIndex.Method declaredMethod : testedClass.getMethods(name, 1)) {
+				if (declaredMethod.isVoid() && testedClass.isVisible(declaredMethod, componentType)) {
+					if (ServiceReference.class.getName().equals(declaredMethod.getParameterTypeName(0)))
+						// we have the winner
+						return declaredMethod.getBinding();
+
+					ITypeBinding paramType = declaredMethod.getParameterType(0);
+					if (priority < 3 && serviceType != null && serviceType.isEqualTo(paramType))
+						priority = 3;
+					else if (priority < 2 && serviceType != null && serviceType.isAssignmentCompatible(paramType))
+						priority = 2;
+					else
+						continue;
 
-						// we have a candidate
-						candidate = declaredMethod;
-					}
+					// we have a (better) candidate
+					candidate = declaredMethod.getBinding();
 				}
 			}
-		} while (recurse && (testedClass = testedClass.getSuperclass()) != null);
+
+			for (MethodIndex.Method declaredMethod : testedClass.getMethods(name, 2)) {
+				if (declaredMethod.isVoid() && testedClass.isVisible(declaredMethod, componentType)) {
+					ITypeBinding paramType = declaredMethod.getParameterType(0);
+					boolean isMap = Map.class.getName().equals(declaredMethod.getParameterTypeName(1));
+					if (priority < 1
+							&& serviceType != null && serviceType.isEqualTo(paramType)
+							&& isMap)
+						priority = 1;
+					else if (candidate != null
+							|| !(serviceType != null && serviceType.isAssignmentCompatible(paramType))
+							|| !isMap)
+						continue;
+
+					// we have a candidate
+					candidate = declaredMethod.getBinding();
+				}
+			}
+		} while (recurse && (testedClass = getSuperclass(testedClass)) != null);
 
 		return candidate;
 	}
 
 	private IMethodBinding findUpdatedMethod(ITypeBinding componentClass, String name, boolean recurse) {
-		ITypeBinding testedClass = componentClass;
+		MethodIndex.Type componentType = processor.getMethodIndex().getType(componentClass);
+		MethodIndex.Type testedClass = componentType;
 
 		IMethodBinding candidate = null;
 		do {
-			for (IMethodBinding declaredMethod : testedClass.getDeclaredMethods()) {
-				if (name.equals(declaredMethod.getName())
-						&& Void.TYPE.getName().equals(declaredMethod.getReturnType().getName())
-						&& (testedClass == componentClass
-						|| Modifier.isPublic(declaredMethod.getModifiers())
-						|| Modifier.isProtected(declaredMethod.getModifiers())
-						|| (!Modifier.isPrivate(declaredMethod.getModifiers())
-								&& testedClass.getPackage().isEqualTo(componentClass.getPackage())))) {
-					ITypeBinding[] paramTypes = declaredMethod.getParameterTypes();
-					if (paramTypes.length == 1) {
-						if (ServiceReference.class.getName().equals(paramTypes[0].getErasure().getQualifiedName()))
-							// we have the winner
-							return declaredMethod;
-
-						if (candidate == null && Map.class.getName().equals(paramTypes[0].getErasure().getQualifiedName())) {
-							// we have a candidate
-							candidate = declaredMethod;
-						}
+			for (MethodIndex.Method declaredMethod : testedClass.getMethods(name, 1)) {
+				if (declaredMethod.isVoid() && testedClass.isVisible(declaredMethod, componentType)) {
+					String paramTypeName = declaredMethod.getParameterTypeName(0);
+					if (ServiceReference.class.getName().equals(paramTypeName))
+						// we have the winner
+						return declaredMethod.getBinding();
+
+					if (candidate == null && Map.class.getName().equals(paramTypeName)) {
+						// we have a candidate
+						candidate = declaredMethod.getBinding();
 					}
 				}
 			}
-		} while (recurse && (testedClass = testedClass.getSuperclass()) != null);
+		} while (recurse && (testedClass = getSuperclass(testedClass)) != null);
 
 		return candidate;
 	}
 
+	private MethodIndex.Type getSuperclass(MethodIndex.Type type) {
+		MethodIndex.Type superclass = type.getSuperclass();
+		if (superclass != null && dependencies != null) {
+			// only source types can change during a build
+			IJavaElement element = superclass.getBinding().getErasure().getJavaElement();
+			ICompilationUnit cu = element instanceof IType ? ((IType) element).getCompilationUnit() : null;
+			if (cu != null)
+				dependencies.add(getFileKey(cu));
+		}
+
+		return superclass;
+	}
+
 	private void reportProblem(Annotation annotation, String member, Collection<DSAnnotationProblem> problems, String message, String... args) {
 		reportProblem(annotation, member, -1, problems, message, args);
 	}
 
-	private void reportProblem(Annotation annotation, String member, ValidationErrorLevel errorLevel, Collection<DSAnnotationProblem> problems, String message, String... args) {
-		reportProblem(annotation, member, -1, errorLevel, problems, message, args);
+	private void reportProblem(Annotation annotation, String member, ValidationErrorLevel errorLevel, String levelKey, Collection<DSAnnotationProblem> problems, String message, String... args) {
+		reportProblem(annotation, member, -1, errorLevel, levelKey, problems, message, args);
 	}
 
 	private void reportProblem(Annotation annotation, String member, int valueIndex, Collection<DSAnnotationProblem> problems, String message, String... args) {
-		reportProblem(annotation, member, valueIndex, errorLevel, problems, message, args);
+		reportProblem(annotation, member, valueIndex, errorLevel, Activator.PREF_VALIDATION_ERROR_LEVEL, problems, message, args);
 	}
 
-	private void reportProblem(Annotation annotation, String member, int valueIndex, ValidationErrorLevel errorLevel, Collection<DSAnnotationProblem> problems, String message, String... args) {
+	private void reportProblem(Annotation annotation, String member, int valueIndex, ValidationErrorLevel errorLevel, String levelKey, Collection<DSAnnotationProblem> problems, String message, String... args) {
 		if (errorLevel.isNone())
 			return;
 
@@ -1810,6 +1807,7 @@ class AnnotationVisitor extends ASTVisitor {
 
 		if (start >= 0) {
 			DSAnnotationProblem problem = new DSAnnotationProblem(errorLevel.isError(), message, args);
+			problem.setLevelKey(levelKey);
 			problem.setSourceStart(start);
 			problem.setSourceEnd(start + length - 1);
 			problems.add(problem);
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timings and counters of a single annotation processing build of one
+ * project.
+ *
+ * <p>
+ * Phase times are accumulated (in nanoseconds) over all invocations of the
+ * phase during the build; e.g., the time of {@link Phase#createASTs} includes
+ * processing of the resulting ASTs, and is summed across parallel workers.
+ * </p>
+ */
+public class BuildMetrics {
+
+	public enum Phase {
+
+		aboutToBuild,
+
+		createASTs,
+
+		// per-component resolution, while parsing
+		processComponent,
+
+		// per-component reconciliation of the component model, on reconciler threads
+		reconcileComponent,
+
+		// committing generated files to the workspace
+		commitFiles,
+
+		// manifest and build.properties update
+		updateProject,
+
+		saveState
+	}
+
+	public enum Counter {
+
+		compilationUnits,
+
+		componentsGenerated,
+
+		componentsUpToDate,
+
+		filesDeleted,
+
+		problemsReported
+	}
+
+	private final String projectName;
+
+	private final long startTime = System.currentTimeMillis();
+
+	private final long start = System.nanoTime();
+
+	private long duration = -1;
+
+	private final long[] times = new long[Phase.values().length];
+
+	private final int[] invocations = new int[Phase.values().length];
+
+	private final long[] counters = new long[Counter.values().length];
+
+	// number of CUs and peak heap usage (in bytes) of each chunk of CUs parsed together
+	private final List<long[]> chunks = new ArrayList<long[]>();
+
+	public BuildMetrics(String projectName) {
+		this.projectName = projectName;
+	}
+
+	public String getProjectName() {
+		return projectName;
+	}
+
+	/**
+	 * Returns the time the build started, in milliseconds since the epoch.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Returns the total duration of the build (in nanoseconds), or -1 if
+	 * still in progress.
+	 */
+	public synchronized long getDuration() {
+		return duration;
+	}
+
+	synchronized void finish() {
+		duration = System.nanoTime() - start;
+	}
+
+	public synchronized void addTime(Phase phase, long nanos) {
+		times[phase.ordinal()] += nanos;
+		++invocations[phase.ordinal()];
+	}
+
+	/**
+	 * Returns the time spent in the given phase (in nanoseconds).
+	 */
+	public synchronized long getTime(Phase phase) {
+		return times[phase.ordinal()];
+	}
+
+	public synchronized int getInvocationCount(Phase phase) {
+		return invocations[phase.ordinal()];
+	}
+
+	public synchronized void increment(Counter counter) {
+		++counters[counter.ordinal()];
+	}
+
+	public synchronized void add(Counter counter, long value) {
+		counters[counter.ordinal()] += value;
+	}
+
+	public synchronized long getCount(Counter counter) {
+		return counters[counter.ordinal()];
+	}
+
+	/**
+	 * Records a chunk of CUs parsed together (i.e., sharing one binding
+	 * environment), along with the peak heap usage observed while processing
+	 * it. Heap usage is that of the whole VM, including any parallel workers.
+	 */
+	public synchronized void addChunk(int compilationUnits, long peakHeap) {
+		chunks.add(new long[] { compilationUnits, peakHeap });
+	}
+
+	public synchronized int getChunkCount() {
+		return chunks.size();
+	}
+
+	/**
+	 * Returns the peak heap usage (in bytes) observed while processing the
+	 * given chunk.
+	 */
+	public synchronized long getPeakHeap(int chunk) {
+		return chunks.get(chunk)[1];
+	}
+
+	/**
+	 * Writes these metrics to the given file as a JSON object.
+	 */
+	public void write(File file) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+		try {
+			out.write(toJSON());
+		} finally {
+			out.close();
+		}
+	}
+
+	public synchronized String toJSON() {
+		StringBuilder buf = new StringBuilder("{\n"); //$NON-NLS-1$
+		buf.append("  \"project\": "); //$NON-NLS-1$
+		appendString(buf, projectName);
+		buf.append(",\n  \"startTime\": ").append(startTime); //$NON-NLS-1$
+		buf.append(",\n  \"durationNanos\": ").append(duration); //$NON-NLS-1$
+		buf.append(",\n  \"phases\": {"); //$NON-NLS-1$
+		for (Phase phase : Phase.values()) {
+			if (phase.ordinal() > 0)
+				buf.append(',');
+
+			buf.append("\n    \"").append(phase.name()).append("\": { \"invocations\": "); //$NON-NLS-1$ //$NON-NLS-2$
+			buf.append(invocations[phase.ordinal()]).append(", \"nanos\": "); //$NON-NLS-1$
+			buf.append(times[phase.ordinal()]).append(" }"); //$NON-NLS-1$
+		}
+
+		buf.append("\n  },\n  \"counters\": {"); //$NON-NLS-1$
+		for (Counter counter : Counter.values()) {
+			if (counter.ordinal() > 0)
+				buf.append(',');
+
+			buf.append("\n    \"").append(counter.name()).append("\": "); //$NON-NLS-1$ //$NON-NLS-2$
+			buf.append(counters[counter.ordinal()]);
+		}
+
+		buf.append("\n  },\n  \"chunks\": ["); //$NON-NLS-1$
+		for (int i = 0, n = chunks.size(); i < n; ++i) {
+			if (i > 0)
+				buf.append(',');
+
+			long[] chunk = chunks.get(i);
+			buf.append("\n    { \"compilationUnits\": ").append(chunk[0]); //$NON-NLS-1$
+			buf.append(", \"peakHeap\": ").append(chunk[1]).append(" }"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		buf.append("\n  ]\n}\n"); //$NON-NLS-1$
+		return buf.toString();
+	}
+
+	private static void appendString(StringBuilder buf, String value) {
+		buf.append('"');
+		for (int i = 0, n = value.length(); i < n; ++i) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				buf.append('\\').append(c);
+			else if (c < 0x20)
+				buf.append(String.format("\\u%04x", (int) c)); //$NON-NLS-1$
+			else
+				buf.append(c);
+		}
+
+		buf.append('"');
+	}
+
+	@Override
+	public String toString() {
+		return toJSON();
+	}
+}
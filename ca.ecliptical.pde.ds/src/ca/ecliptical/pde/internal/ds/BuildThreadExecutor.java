@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs tasks submitted by worker threads on the builder thread.
+ *
+ * <p>
+ * The builder thread holds the workspace lock for the duration of the build;
+ * any worker attempting to modify resources (or even state shared with the
+ * builder) would block on it. Instead, workers hand such tasks over to the
+ * builder thread, which executes them while waiting for the workers to finish.
+ * </p>
+ *
+ * <p>
+ * Workers must be started using {@link #submit(Executor, Runnable)}, so that
+ * the builder thread is woken up when they finish.
+ * </p>
+ */
+public class BuildThreadExecutor {
+
+	// wakes up the builder thread so that it can check whether all workers are done
+	private static final Runnable WAKE_UP = new Runnable() {
+		public void run() {
+			// nothing to do
+		}
+	};
+
+	private final Thread buildThread;
+
+	private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<Runnable>();
+
+	public BuildThreadExecutor() {
+		buildThread = Thread.currentThread();
+	}
+
+	public void syncExec(Runnable task) {
+		if (Thread.currentThread() == buildThread) {
+			task.run();
+			return;
+		}
+
+		FutureTask<Object> future = new FutureTask<Object>(task, null);
+		tasks.add(future);
+
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+
+			if (cause instanceof Error)
+				throw (Error) cause;
+
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	public Future<?> submit(Executor executor, Runnable worker) {
+		FutureTask<Object> future = new FutureTask<Object>(worker, null) {
+			@Override
+			protected void done() {
+				// called once the worker is done (or cancelled)
+				tasks.add(WAKE_UP);
+			}
+		};
+
+		executor.execute(future);
+		return future;
+	}
+
+	public void runUntilDone(Collection<? extends Future<?>> futures) {
+		if (Thread.currentThread() != buildThread)
+			throw new IllegalStateException("Not called from build thread."); //$NON-NLS-1$
+
+		while (!isDone(futures)) {
+			Runnable task;
+			try {
+				task = tasks.take();
+			} catch (InterruptedException e) {
+				for (Future<?> future : futures) {
+					future.cancel(true);
+				}
+
+				Thread.currentThread().interrupt();
+				break;
+			}
+
+			task.run();
+		}
+
+		// cancel anything left behind by cancelled workers
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			if (task instanceof Future<?>)
+				((Future<?>) task).cancel(false);
+		}
+	}
+
+	private boolean isDone(Collection<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			if (!future.isDone())
+				return false;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,681 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Component description resolved from annotations, independent of the
+ * component model it's eventually applied to.
+ *
+ * <p>
+ * Once resolved, descriptors are {@link #freeze() frozen} and retained in
+ * project state, where they serve as a read-only view of the component's
+ * metadata.
+ * </p>
+ */
+public class ComponentDescriptor {
+
+	/**
+	 * Version of the generated output; must be incremented whenever generated
+	 * descriptors change for the same input (e.g., formatting or attribute
+	 * order), so that files generated by previous versions are regenerated.
+	 */
+	public static final int GENERATOR_VERSION = 2;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private String name;
+
+	private String implClass;
+
+	private String dsKey;
+
+	private Collection<String> services = Collections.emptyList();
+
+	private String factory;
+
+	private Boolean serviceFactory;
+
+	private Boolean enabled;
+
+	private Boolean immediate;
+
+	private String[] properties = new String[0];
+
+	private String[] propertyFiles = new String[0];
+
+	private String configPolicy;
+
+	private String configPid;
+
+	private String activate;
+
+	private boolean implicitActivate;
+
+	private String deactivate;
+
+	private boolean implicitDeactivate;
+
+	private String modified;
+
+	private List<Reference> references = new ArrayList<Reference>();
+
+	private String xmlns;
+
+	private boolean frozen;
+
+	/**
+	 * Makes this descriptor (including its references) read-only; any
+	 * attempt to modify it afterwards fails with an
+	 * {@link IllegalStateException}.
+	 *
+	 * @return this descriptor
+	 */
+	public ComponentDescriptor freeze() {
+		if (!frozen) {
+			frozen = true;
+			services = Collections.unmodifiableList(new ArrayList<String>(services));
+			for (Reference reference : references) {
+				reference.frozen = true;
+			}
+
+			references = Collections.unmodifiableList(references);
+		}
+
+		return this;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Returns a modifiable copy of this descriptor.
+	 */
+	public ComponentDescriptor copy() {
+		ComponentDescriptor copy = new ComponentDescriptor();
+		copy.name = name;
+		copy.implClass = implClass;
+		copy.dsKey = dsKey;
+		copy.services = new ArrayList<String>(services);
+		copy.factory = factory;
+		copy.serviceFactory = serviceFactory;
+		copy.enabled = enabled;
+		copy.immediate = immediate;
+		copy.properties = properties.clone();
+		copy.propertyFiles = propertyFiles.clone();
+		copy.configPolicy = configPolicy;
+		copy.configPid = configPid;
+		copy.activate = activate;
+		copy.implicitActivate = implicitActivate;
+		copy.deactivate = deactivate;
+		copy.implicitDeactivate = implicitDeactivate;
+		copy.modified = modified;
+		for (Reference reference : references) {
+			copy.references.add(reference.copy());
+		}
+
+		copy.xmlns = xmlns;
+		return copy;
+	}
+
+	private void checkModifiable() {
+		if (frozen)
+			throw new IllegalStateException("Component descriptor is read-only."); //$NON-NLS-1$
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		checkModifiable();
+		this.name = name;
+	}
+
+	public String getImplClass() {
+		return implClass;
+	}
+
+	public void setImplClass(String implClass) {
+		checkModifiable();
+		this.implClass = implClass;
+	}
+
+	public String getDSKey() {
+		return dsKey;
+	}
+
+	public void setDSKey(String dsKey) {
+		checkModifiable();
+		this.dsKey = dsKey;
+	}
+
+	public Collection<String> getServices() {
+		return services;
+	}
+
+	public void setServices(Collection<String> services) {
+		checkModifiable();
+		this.services = services;
+	}
+
+	public String getFactory() {
+		return factory;
+	}
+
+	public void setFactory(String factory) {
+		checkModifiable();
+		this.factory = factory;
+	}
+
+	public Boolean getServiceFactory() {
+		return serviceFactory;
+	}
+
+	public void setServiceFactory(Boolean serviceFactory) {
+		checkModifiable();
+		this.serviceFactory = serviceFactory;
+	}
+
+	public Boolean getEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(Boolean enabled) {
+		checkModifiable();
+		this.enabled = enabled;
+	}
+
+	public Boolean getImmediate() {
+		return immediate;
+	}
+
+	public void setImmediate(Boolean immediate) {
+		checkModifiable();
+		this.immediate = immediate;
+	}
+
+	public String[] getProperties() {
+		return frozen ? properties.clone() : properties;
+	}
+
+	public void setProperties(String[] properties) {
+		checkModifiable();
+		this.properties = properties;
+	}
+
+	/**
+	 * Returns the component's properties grouped by name, in order of first
+	 * occurrence, the way they are declared in the descriptor.
+	 *
+	 * <p>
+	 * Only the first value of each property is trimmed. If a property occurs
+	 * more than once, its values (first one included) are declared in the
+	 * element's body, separated by line breaks.
+	 * </p>
+	 */
+	public List<PropertyElement> getPropertyElements() {
+		LinkedHashMap<String, PropertyElement> map = new LinkedHashMap<String, PropertyElement>(properties.length);
+		LinkedHashMap<String, StringBuilder> bodies = new LinkedHashMap<String, StringBuilder>();
+		for (String propertyStr : properties) {
+			String[] pair = propertyStr.split("=", 2); //$NON-NLS-1$
+			int colon = pair[0].indexOf(':');
+			String propertyName, propertyType;
+			if (colon == -1) {
+				propertyName = pair[0];
+				propertyType = null;
+			} else {
+				propertyName = pair[0].substring(0, colon);
+				propertyType = pair[0].substring(colon + 1);
+			}
+
+			PropertyElement element = map.get(propertyName);
+			if (element == null) {
+				map.put(propertyName, new PropertyElement(propertyName, propertyType, pair.length > 1 ? pair[1].trim() : null));
+			} else {
+				// property is multi-valued
+				StringBuilder body = bodies.get(propertyName);
+				if (body == null) {
+					body = new StringBuilder(String.valueOf(element.value));
+					bodies.put(propertyName, body);
+				}
+
+				if (pair.length > 1)
+					body.append('\n').append(pair[1]);
+			}
+		}
+
+		for (Map.Entry<String, StringBuilder> entry : bodies.entrySet()) {
+			map.get(entry.getKey()).body = entry.getValue().toString();
+		}
+
+		return new ArrayList<PropertyElement>(map.values());
+	}
+
+	public String[] getPropertyFiles() {
+		return frozen ? propertyFiles.clone() : propertyFiles;
+	}
+
+	public void setPropertyFiles(String[] propertyFiles) {
+		checkModifiable();
+		this.propertyFiles = propertyFiles;
+	}
+
+	public String getConfigPolicy() {
+		return configPolicy;
+	}
+
+	public void setConfigPolicy(String configPolicy) {
+		checkModifiable();
+		this.configPolicy = configPolicy;
+	}
+
+	public String getConfigPid() {
+		return configPid;
+	}
+
+	public void setConfigPid(String configPid) {
+		checkModifiable();
+		this.configPid = configPid;
+	}
+
+	public String getActivate() {
+		return activate;
+	}
+
+	public void setActivate(String activate) {
+		checkModifiable();
+		this.activate = activate;
+	}
+
+	/**
+	 * Indicates whether the component class declares an un-annotated, but
+	 * otherwise valid activate method.
+	 */
+	public boolean hasImplicitActivate() {
+		return implicitActivate;
+	}
+
+	public void setImplicitActivate(boolean implicitActivate) {
+		checkModifiable();
+		this.implicitActivate = implicitActivate;
+	}
+
+	public String getDeactivate() {
+		return deactivate;
+	}
+
+	public void setDeactivate(String deactivate) {
+		checkModifiable();
+		this.deactivate = deactivate;
+	}
+
+	/**
+	 * Indicates whether the component class declares an un-annotated, but
+	 * otherwise valid deactivate method.
+	 */
+	public boolean hasImplicitDeactivate() {
+		return implicitDeactivate;
+	}
+
+	public void setImplicitDeactivate(boolean implicitDeactivate) {
+		checkModifiable();
+		this.implicitDeactivate = implicitDeactivate;
+	}
+
+	public String getModified() {
+		return modified;
+	}
+
+	public void setModified(String modified) {
+		checkModifiable();
+		this.modified = modified;
+	}
+
+	/**
+	 * Returns component references in declaration order.
+	 */
+	public List<Reference> getReferences() {
+		return references;
+	}
+
+	/**
+	 * Returns the explicitly requested descriptor namespace, if any.
+	 */
+	public String getXMLNS() {
+		return xmlns;
+	}
+
+	public void setXMLNS(String xmlns) {
+		checkModifiable();
+		this.xmlns = xmlns;
+	}
+
+	/**
+	 * Returns a hash of everything that determines the generated component
+	 * descriptor; equal fingerprints mean (with overwhelming likelihood)
+	 * identical output given identical existing content (and the same
+	 * {@link #GENERATOR_VERSION}).
+	 */
+	public long getFingerprint() {
+		long hash = hash(FNV_OFFSET_BASIS, GENERATOR_VERSION);
+		hash = hash(hash, name);
+		hash = hash(hash, implClass);
+		hash = hash(hash, dsKey);
+		hash = hash(hash, services.size());
+		for (String service : services) {
+			hash = hash(hash, service);
+		}
+
+		hash = hash(hash, factory);
+		hash = hash(hash, serviceFactory);
+		hash = hash(hash, enabled);
+		hash = hash(hash, immediate);
+		hash = hash(hash, properties.length);
+		for (String property : properties) {
+			hash = hash(hash, property);
+		}
+
+		hash = hash(hash, propertyFiles.length);
+		for (String propertyFile : propertyFiles) {
+			hash = hash(hash, propertyFile);
+		}
+
+		hash = hash(hash, configPolicy);
+		hash = hash(hash, configPid);
+		hash = hash(hash, activate);
+		hash = hash(hash, Boolean.valueOf(implicitActivate));
+		hash = hash(hash, deactivate);
+		hash = hash(hash, Boolean.valueOf(implicitDeactivate));
+		hash = hash(hash, modified);
+		hash = hash(hash, references.size());
+		for (Reference reference : references) {
+			hash = hash(hash, reference.bind);
+			hash = hash(hash, reference.name);
+			hash = hash(hash, reference.service);
+			hash = hash(hash, reference.cardinality);
+			hash = hash(hash, reference.policy);
+			hash = hash(hash, reference.target);
+			hash = hash(hash, reference.unbind);
+			hash = hash(hash, reference.policyOption);
+			hash = hash(hash, reference.updated);
+		}
+
+		return hash(hash, xmlns);
+	}
+
+	@Override
+	public int hashCode() {
+		long fingerprint = getFingerprint();
+		return (int) (fingerprint ^ (fingerprint >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+
+		if (obj == null || !getClass().equals(obj.getClass()))
+			return false;
+
+		ComponentDescriptor o = (ComponentDescriptor) obj;
+		return eq(name, o.name)
+				&& eq(implClass, o.implClass)
+				&& eq(dsKey, o.dsKey)
+				&& new ArrayList<String>(services).equals(new ArrayList<String>(o.services))
+				&& eq(factory, o.factory)
+				&& eq(serviceFactory, o.serviceFactory)
+				&& eq(enabled, o.enabled)
+				&& eq(immediate, o.immediate)
+				&& Arrays.equals(properties, o.properties)
+				&& Arrays.equals(propertyFiles, o.propertyFiles)
+				&& eq(configPolicy, o.configPolicy)
+				&& eq(configPid, o.configPid)
+				&& eq(activate, o.activate)
+				&& implicitActivate == o.implicitActivate
+				&& eq(deactivate, o.deactivate)
+				&& implicitDeactivate == o.implicitDeactivate
+				&& eq(modified, o.modified)
+				&& references.equals(o.references)
+				&& eq(xmlns, o.xmlns);
+	}
+
+	private static boolean eq(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	private static long hash(long hash, String value) {
+		if (value == null)
+			return hash(hash, -1);
+
+		hash = hash(hash, value.length());
+		for (int i = 0, n = value.length(); i < n; ++i) {
+			char c = value.charAt(i);
+			hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+
+		return hash;
+	}
+
+	private static long hash(long hash, Boolean value) {
+		return hash(hash, value == null ? -1 : value.booleanValue() ? 1 : 0);
+	}
+
+	private static long hash(long hash, int value) {
+		for (int i = 0; i < 4; ++i) {
+			hash = (hash ^ ((value >>> (i * 8)) & 0xff)) * FNV_PRIME;
+		}
+
+		return hash;
+	}
+
+	/**
+	 * A single property element, with either a value or a body.
+	 */
+	public static class PropertyElement {
+
+		private final String name;
+
+		private final String type;
+
+		private final String value;
+
+		private String body;
+
+		PropertyElement(String name, String type, String value) {
+			this.name = name;
+			this.type = type;
+			this.value = value;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * Returns the property's (trimmed) value, unless it has a body.
+		 */
+		public String getValue() {
+			return body == null ? value : null;
+		}
+
+		/**
+		 * Returns the property's values separated by line breaks, if it is
+		 * multi-valued.
+		 */
+		public String getBody() {
+			return body;
+		}
+	}
+
+	public static class Reference {
+
+		private final String bind;
+
+		private String name;
+
+		private String service;
+
+		private String cardinality;
+
+		private String policy;
+
+		private String target;
+
+		private String unbind;
+
+		private String policyOption;
+
+		private String updated;
+
+		private boolean frozen;
+
+		public Reference(String bind) {
+			this.bind = bind;
+		}
+
+		public String getBind() {
+			return bind;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			checkModifiable();
+			this.name = name;
+		}
+
+		public String getService() {
+			return service;
+		}
+
+		public void setService(String service) {
+			checkModifiable();
+			this.service = service;
+		}
+
+		public String getCardinality() {
+			return cardinality;
+		}
+
+		public void setCardinality(String cardinality) {
+			checkModifiable();
+			this.cardinality = cardinality;
+		}
+
+		public String getPolicy() {
+			return policy;
+		}
+
+		public void setPolicy(String policy) {
+			checkModifiable();
+			this.policy = policy;
+		}
+
+		public String getTarget() {
+			return target;
+		}
+
+		public void setTarget(String target) {
+			checkModifiable();
+			this.target = target;
+		}
+
+		public String getUnbind() {
+			return unbind;
+		}
+
+		public void setUnbind(String unbind) {
+			checkModifiable();
+			this.unbind = unbind;
+		}
+
+		public String getPolicyOption() {
+			return policyOption;
+		}
+
+		public void setPolicyOption(String policyOption) {
+			checkModifiable();
+			this.policyOption = policyOption;
+		}
+
+		public String getUpdated() {
+			return updated;
+		}
+
+		public void setUpdated(String updated) {
+			checkModifiable();
+			this.updated = updated;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = bind == null ? 0 : bind.hashCode();
+			result = 31 * result + (name == null ? 0 : name.hashCode());
+			return 31 * result + (service == null ? 0 : service.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this)
+				return true;
+
+			if (obj == null || !getClass().equals(obj.getClass()))
+				return false;
+
+			Reference o = (Reference) obj;
+			return eq(bind, o.bind)
+					&& eq(name, o.name)
+					&& eq(service, o.service)
+					&& eq(cardinality, o.cardinality)
+					&& eq(policy, o.policy)
+					&& eq(target, o.target)
+					&& eq(unbind, o.unbind)
+					&& eq(policyOption, o.policyOption)
+					&& eq(updated, o.updated);
+		}
+
+		Reference copy() {
+			Reference copy = new Reference(bind);
+			copy.name = name;
+			copy.service = service;
+			copy.cardinality = cardinality;
+			copy.policy = policy;
+			copy.target = target;
+			copy.unbind = unbind;
+			copy.policyOption = policyOption;
+			copy.updated = updated;
+			return copy;
+		}
+
+		private void checkModifiable() {
+			if (frozen)
+				throw new IllegalStateException("Component reference descriptor is read-only."); //$NON-NLS-1$
+		}
+	}
+}
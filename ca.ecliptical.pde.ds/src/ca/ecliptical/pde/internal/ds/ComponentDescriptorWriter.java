@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.pde.internal.ds.core.IDSConstants;
+
+/**
+ * Writes a new component descriptor document directly from a resolved
+ * {@link ComponentDescriptor}, without building a component model.
+ *
+ * <p>
+ * The output is equivalent to what applying the descriptor to an empty
+ * component model would produce (elements in the same order, default
+ * attribute values omitted, references sorted by name, and the same
+ * namespace selection); it is therefore only suitable for files that don't
+ * exist yet &mdash; existing files must be reconciled through the model in
+ * order to preserve user edits.
+ * </p>
+ */
+@SuppressWarnings("restriction")
+public class ComponentDescriptorWriter {
+
+	private static final String NAMESPACE_1_1 = IDSConstants.NAMESPACE;
+
+	private static final String NAMESPACE_1_2 = "http://www.osgi.org/xmlns/scr/v1.2.0"; //$NON-NLS-1$
+
+	private static final String NAMESPACE_PREFIX = "scr"; //$NON-NLS-1$
+
+	private static final String ATTRIBUTE_COMPONENT_CONFIGURATION_PID = "configuration-pid"; //$NON-NLS-1$
+
+	private static final String ATTRIBUTE_REFERENCE_POLICY_OPTION = "policy-option"; //$NON-NLS-1$
+
+	private static final String ATTRIBUTE_REFERENCE_UPDATED = "updated"; //$NON-NLS-1$
+
+	private static final String INDENT = "   "; //$NON-NLS-1$
+
+	private static final Comparator<ComponentDescriptor.Reference> REF_NAME_COMPARATOR = new Comparator<ComponentDescriptor.Reference>() {
+
+		public int compare(ComponentDescriptor.Reference o1, ComponentDescriptor.Reference o2) {
+			return o1.getName().compareTo(o2.getName());
+		}
+	};
+
+	private final String lineDelimiter;
+
+	private final StringBuilder buf = new StringBuilder(1024);
+
+	public ComponentDescriptorWriter() {
+		this(System.getProperty("line.separator")); //$NON-NLS-1$
+	}
+
+	public ComponentDescriptorWriter(String lineDelimiter) {
+		this.lineDelimiter = lineDelimiter;
+	}
+
+	/**
+	 * Returns the complete XML document describing the given component.
+	 */
+	public String write(ComponentDescriptor descriptor) {
+		buf.setLength(0);
+		buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").append(lineDelimiter); //$NON-NLS-1$
+
+		ArrayList<ComponentDescriptor.Reference> references = new ArrayList<ComponentDescriptor.Reference>(descriptor.getReferences());
+		boolean requiresV12 = descriptor.getConfigPid() != null;
+		for (ComponentDescriptor.Reference reference : references) {
+			requiresV12 |= reference.getPolicyOption() != null || reference.getUpdated() != null;
+		}
+
+		String xmlns = descriptor.getXMLNS();
+		if (xmlns == null)
+			xmlns = requiresV12 ? NAMESPACE_1_2 : NAMESPACE_1_1;
+
+		// note: the namespace declaration comes first, then attributes in lexicographical order, same as the model
+		buf.append('<').append(NAMESPACE_PREFIX).append(':').append(IDSConstants.ELEMENT_COMPONENT);
+		appendAttribute("xmlns:" + NAMESPACE_PREFIX, xmlns); //$NON-NLS-1$
+		appendAttribute(IDSConstants.ATTRIBUTE_COMPONENT_ACTIVATE, descriptor.getActivate());
+		appendAttribute(ATTRIBUTE_COMPONENT_CONFIGURATION_PID, descriptor.getConfigPid());
+		appendAttribute(IDSConstants.ATTRIBUTE_COMPONENT_CONFIGURATION_POLICY, descriptor.getConfigPolicy());
+		appendAttribute(IDSConstants.ATTRIBUTE_COMPONENT_DEACTIVATE, descriptor.getDeactivate());
+		appendAttribute(IDSConstants.ATTRIBUTE_COMPONENT_ENABLED, descriptor.getEnabled());
+		appendAttribute(IDSConstants.ATTRIBUTE_COMPONENT_FACTORY, descriptor.getFactory());
+		appendAttribute(IDSConstants.ATTRIBUTE_COMPONENT_IMMEDIATE, descriptor.getImmediate());
+		appendAttribute(IDSConstants.ATTRIBUTE_COMPONENT_MODIFIED, descriptor.getModified());
+		appendAttribute(IDSConstants.ATTRIBUTE_COMPONENT_NAME, descriptor.getName());
+		buf.append('>').append(lineDelimiter);
+
+		appendProperties(descriptor.getPropertyElements());
+
+		for (String propertyFile : descriptor.getPropertyFiles()) {
+			buf.append(INDENT).append('<').append(IDSConstants.ELEMENT_PROPERTIES);
+			appendAttribute(IDSConstants.ATTRIBUTE_PROPERTIES_ENTRY, propertyFile);
+			buf.append("/>").append(lineDelimiter); //$NON-NLS-1$
+		}
+
+		Collection<String> services = descriptor.getServices();
+		if (!services.isEmpty()) {
+			buf.append(INDENT).append('<').append(IDSConstants.ELEMENT_SERVICE);
+			appendAttribute(IDSConstants.ATTRIBUTE_SERVICE_FACTORY, descriptor.getServiceFactory());
+			buf.append('>').append(lineDelimiter);
+			for (String service : services) {
+				buf.append(INDENT).append(INDENT).append('<').append(IDSConstants.ELEMENT_PROVIDE);
+				appendAttribute(IDSConstants.ATTRIBUTE_PROVIDE_INTERFACE, service);
+				buf.append("/>").append(lineDelimiter); //$NON-NLS-1$
+			}
+
+			buf.append(INDENT).append("</").append(IDSConstants.ELEMENT_SERVICE).append('>').append(lineDelimiter); //$NON-NLS-1$
+		}
+
+		// references must be declared in ascending lexicographical order of their names
+		Collections.sort(references, REF_NAME_COMPARATOR);
+		for (ComponentDescriptor.Reference reference : references) {
+			buf.append(INDENT).append('<').append(IDSConstants.ELEMENT_REFERENCE);
+			appendAttribute(IDSConstants.ATTRIBUTE_REFERENCE_BIND, reference.getBind());
+			appendAttribute(IDSConstants.ATTRIBUTE_REFERENCE_CARDINALITY, reference.getCardinality());
+			appendAttribute(IDSConstants.ATTRIBUTE_REFERENCE_INTERFACE, reference.getService());
+			appendAttribute(IDSConstants.ATTRIBUTE_REFERENCE_NAME, reference.getName());
+			appendAttribute(IDSConstants.ATTRIBUTE_REFERENCE_POLICY, reference.getPolicy());
+			appendAttribute(ATTRIBUTE_REFERENCE_POLICY_OPTION, reference.getPolicyOption());
+			appendAttribute(IDSConstants.ATTRIBUTE_REFERENCE_TARGET, reference.getTarget());
+			appendAttribute(IDSConstants.ATTRIBUTE_REFERENCE_UNBIND, reference.getUnbind());
+			appendAttribute(ATTRIBUTE_REFERENCE_UPDATED, reference.getUpdated());
+			buf.append("/>").append(lineDelimiter); //$NON-NLS-1$
+		}
+
+		buf.append(INDENT).append('<').append(IDSConstants.ELEMENT_IMPLEMENTATION);
+		appendAttribute(IDSConstants.ATTRIBUTE_IMPLEMENTATION_CLASS, descriptor.getImplClass());
+		buf.append("/>").append(lineDelimiter); //$NON-NLS-1$
+
+		buf.append("</").append(NAMESPACE_PREFIX).append(':').append(IDSConstants.ELEMENT_COMPONENT).append('>').append(lineDelimiter); //$NON-NLS-1$
+		return buf.toString();
+	}
+
+	private void appendProperties(List<ComponentDescriptor.PropertyElement> properties) {
+		for (ComponentDescriptor.PropertyElement property : properties) {
+			buf.append(INDENT).append('<').append(IDSConstants.ELEMENT_PROPERTY);
+			appendAttribute(IDSConstants.ATTRIBUTE_PROPERTY_NAME, property.getName());
+			appendAttribute(IDSConstants.ATTRIBUTE_PROPERTY_TYPE, property.getType());
+			String body = property.getBody();
+			if (body == null) {
+				appendAttribute(IDSConstants.ATTRIBUTE_PROPERTY_VALUE, property.getValue());
+				buf.append("/>").append(lineDelimiter); //$NON-NLS-1$
+				continue;
+			}
+
+			// like the model, the body is written as-is (trimmed as a whole), without indentation
+			body = body.trim();
+			if (body.length() == 0) {
+				buf.append("/>").append(lineDelimiter); //$NON-NLS-1$
+				continue;
+			}
+
+			buf.append('>');
+			appendEscaped(body);
+			buf.append("</").append(IDSConstants.ELEMENT_PROPERTY).append('>').append(lineDelimiter); //$NON-NLS-1$
+		}
+	}
+
+	private void appendAttribute(String name, Boolean value) {
+		if (value != null)
+			appendAttribute(name, value.booleanValue() ? IDSConstants.VALUE_TRUE : IDSConstants.VALUE_FALSE);
+	}
+
+	private void appendAttribute(String name, String value) {
+		if (value == null)
+			return;
+
+		buf.append(' ').append(name).append("=\""); //$NON-NLS-1$
+		appendEscaped(value);
+		buf.append('"');
+	}
+
+	private void appendEscaped(String value) {
+		for (int i = 0, n = value.length(); i < n; ++i) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				buf.append("&amp;"); //$NON-NLS-1$
+				break;
+			case '<':
+				buf.append("&lt;"); //$NON-NLS-1$
+				break;
+			case '>':
+				buf.append("&gt;"); //$NON-NLS-1$
+				break;
+			case '"':
+				buf.append("&quot;"); //$NON-NLS-1$
+				break;
+			case '\'':
+				buf.append("&apos;"); //$NON-NLS-1$
+				break;
+			default:
+				buf.append(c);
+			}
+		}
+	}
+}
@@ -58,8 +58,10 @@ public class ComponentPropertyTester extends PropertyTester {
 		try {
 			return element.getElementType() == IJavaElement.TYPE ? containsImplicitName((IType) receiver) : containsImplicitName((IPackageFragment) receiver);
 		} catch (JavaModelException e) {
-			if (debug.isDebugging())
-				debug.trace(String.format("Error searching for components with implicit names in element: %s", element), e); //$NON-NLS-1$
+			if (debug.isDebugging()) {
+				debug.traceEvent("Error searching for components with implicit names in element: %s", element); //$NON-NLS-1$
+				debug.trace("Error searching for components with implicit names.", e); //$NON-NLS-1$
+			}
 		}
 
 		return false;
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Reconciles generated files with resolved component descriptors on worker
+ * threads, while the builder continues parsing.
+ *
+ * <p>
+ * Tasks with the same key (i.e., for the same file) are always run by the same
+ * worker, in the order they were submitted. Each worker's queue is bounded;
+ * submitting a task to a full queue blocks until the worker catches up. Tasks
+ * must not modify resources, or touch state other than staged changes. With
+ * no workers, tasks are run by the submitting thread.
+ * </p>
+ */
+public class ComponentReconciler {
+
+	private static final int QUEUE_CAPACITY = 16;
+
+	// tells a worker to stop once it's done with all preceding tasks
+	private static final Runnable STOP = new Runnable() {
+		public void run() {
+			// nothing to do
+		}
+	};
+
+	private final Worker[] workers;
+
+	public ComponentReconciler(int threadCount) {
+		workers = new Worker[threadCount];
+		for (int i = 0; i < workers.length; ++i) {
+			workers[i] = new Worker(i + 1);
+			workers[i].start();
+		}
+	}
+
+	public void submit(Object key, Runnable task) {
+		if (workers.length == 0) {
+			run(task);
+			return;
+		}
+
+		put(workers[(key.hashCode() & Integer.MAX_VALUE) % workers.length].tasks, task);
+	}
+
+	/**
+	 * Waits until all submitted tasks are done, and stops the workers.
+	 */
+	public void join() {
+		for (Worker worker : workers) {
+			put(worker.tasks, STOP);
+		}
+
+		boolean interrupted = false;
+		for (Worker worker : workers) {
+			while (worker.isAlive()) {
+				try {
+					worker.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static void put(BlockingQueue<Runnable> tasks, Runnable task) {
+		// tasks must not be lost, or run out of order
+		boolean interrupted = false;
+		while (true) {
+			try {
+				tasks.put(task);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static void run(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			Activator.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Error reconciling component.", e)); //$NON-NLS-1$
+		}
+	}
+
+	private static class Worker extends Thread {
+
+		final BlockingQueue<Runnable> tasks = new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY);
+
+		Worker(int index) {
+			super(String.format("DS Component Reconciler-%d", index)); //$NON-NLS-1$
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Runnable task;
+				try {
+					task = tasks.take();
+				} catch (InterruptedException e) {
+					// only stopped by request, so that no task is left behind
+					continue;
+				}
+
+				if (task == STOP)
+					break;
+
+				ComponentReconciler.run(task);
+			}
+		}
+	}
+}
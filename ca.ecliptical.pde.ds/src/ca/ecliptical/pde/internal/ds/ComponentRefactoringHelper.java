@@ -193,7 +193,7 @@ public class ComponentRefactoringHelper {
 				}
 			}
 		} else if (debug.isDebugging()) {
-			debug.trace(String.format("Type %s does not have implicit component name.", type.getFullyQualifiedName())); //$NON-NLS-1$
+			debug.traceEvent("Type %s does not have implicit component name.", type.getFullyQualifiedName()); //$NON-NLS-1$
 		}
 
 		// process any nested types
@@ -281,7 +281,7 @@ public class ComponentRefactoringHelper {
 			return null;
 
 		if (debug.isDebugging())
-			debug.trace(String.format("Changing %s from %s to %s.", type.getFullyQualifiedName(), modelFile.getFullPath(), newModelFile.getFullPath())); //$NON-NLS-1$
+			debug.traceEvent("Changing %s from %s to %s.", type.getFullyQualifiedName(), modelFile.getFullPath(), newModelFile.getFullPath()); //$NON-NLS-1$
 
 		ITextFileBufferManager manager = FileBuffers.getTextFileBufferManager();
 		manager.connect(modelFile.getFullPath(), LocationKind.IFILE, null);
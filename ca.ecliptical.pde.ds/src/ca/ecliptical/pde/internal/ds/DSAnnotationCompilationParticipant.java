@@ -10,26 +10,47 @@
  *******************************************************************************/
 package ca.ecliptical.pde.internal.ds;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.lang.ref.SoftReference;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.resources.ProjectScope;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -37,7 +58,6 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.MultiStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Platform;
-import org.eclipse.core.runtime.QualifiedName;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.preferences.IPreferencesService;
 import org.eclipse.core.runtime.preferences.IScopeContext;
@@ -56,10 +76,17 @@ import org.eclipse.jdt.core.compiler.BuildContext;
 import org.eclipse.jdt.core.compiler.CompilationParticipant;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.BundleSpecification;
+import org.eclipse.osgi.util.ManifestElement;
 import org.eclipse.pde.core.IBaseModel;
 import org.eclipse.pde.core.build.IBuildEntry;
 import org.eclipse.pde.core.build.IBuildModel;
 import org.eclipse.pde.core.build.IBuildModelFactory;
+import org.eclipse.pde.core.plugin.IPluginModelBase;
+import org.eclipse.pde.core.plugin.PluginRegistry;
 import org.eclipse.pde.internal.core.WorkspaceModelManager;
 import org.eclipse.pde.internal.core.ibundle.IBundleModel;
 import org.eclipse.pde.internal.core.ibundle.IBundlePluginModelBase;
@@ -67,9 +94,7 @@ import org.eclipse.pde.internal.core.natures.PDE;
 import org.eclipse.pde.internal.core.project.PDEProject;
 import org.eclipse.pde.internal.ui.util.ModelModification;
 import org.eclipse.pde.internal.ui.util.PDEModelUtility;
-import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
-import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.BundleException;
 import org.osgi.service.component.annotations.Component;
 
 import ca.ecliptical.pde.ds.classpath.Constants;
@@ -83,16 +108,40 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 
 	static final String ANNOTATIONS_PACKAGE = COMPONENT_ANNOTATION.substring(0, COMPONENT_ANNOTATION.lastIndexOf('.'));
 
-	private static final QualifiedName PROP_STATE = new QualifiedName(Activator.PLUGIN_ID, "state"); //$NON-NLS-1$
+	private static final char[] ANNOTATIONS_PACKAGE_CHARS = ANNOTATIONS_PACKAGE.toCharArray();
 
 	private static final String STATE_FILENAME = "state.dat"; //$NON-NLS-1$
 
+	// state files at least this large are memory-mapped rather than read into heap
+	private static final long STATE_FILE_MAP_THRESHOLD = 64 * 1024;
+
+	private static final String JOURNAL_FILENAME = "state.journal"; //$NON-NLS-1$
+
+	private static final String METRICS_FILENAME = "build-metrics.json"; //$NON-NLS-1$
+
+	// journals are folded into a new state snapshot once they grow larger than this or the snapshot itself
+	private static final long JOURNAL_COMPACTION_THRESHOLD = 64 * 1024;
+
 	static final String BUILDPATH_PROBLEM_MARKER = "ca.ecliptical.pde.ds.buildpath_problem"; //$NON-NLS-1$
 
+	// minimum number of CUs in each partition of a split project; every partition
+	// resolves bindings shared by the project (JRE, required bundles) all over again,
+	// so smaller projects are processed by a single thread (though concurrently with other projects)
+	private static final int DEFAULT_SPLIT_THRESHOLD = 1000;
+
+	// number of CUs parsed together before their heap usage is known
+	private static final int INITIAL_CHUNK_SIZE = 200;
+
 	private static final Debug debug = Debug.getDebug("ds-annotation-builder"); //$NON-NLS-1$
 
 	private final Map<IJavaProject, ProjectContext> processingContext = Collections.synchronizedMap(new HashMap<IJavaProject, ProjectContext>());
 
+	// metrics of each project's last finished build, by project name
+	private static final Map<String, BuildMetrics> lastMetrics = Collections.synchronizedMap(new HashMap<String, BuildMetrics>());
+
+	// component types to reprocess in each project, due to changes of types they depend on in other projects
+	private static final Map<IProject, Collection<String>> pendingDependents = Collections.synchronizedMap(new HashMap<IProject, Collection<String>>());
+
 	@Override
 	public boolean isAnnotationProcessor() {
 		return true;
@@ -128,49 +177,175 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 	@Override
 	public int aboutToBuild(IJavaProject project) {
 		if (debug.isDebugging())
-			debug.trace(String.format("About to build project: %s", project.getElementName())); //$NON-NLS-1$
+			debug.traceEvent("About to build project: %s", project.getElementName()); //$NON-NLS-1$
 
+		long start = System.nanoTime();
 		int result = READY_FOR_BUILD;
 
 		int[] retval = new int[1];
 		ProjectState state = getState(project, retval);
 		result = retval[0];
 
-		processingContext.put(project, new ProjectContext(state));
+		ProjectContext projectContext = new ProjectContext(project.getProject(), state);
+		// a context left behind by an unfinished build of this project is replaced; its state stays pinned until this build finishes
+		ProjectContext previous = processingContext.put(project, projectContext);
+		if (previous != null && debug.isDebugging())
+			debug.traceEvent("Replacing unfinished build context of project: %s", project.getElementName()); //$NON-NLS-1$
+
+		Activator.getDefault().getStateCache().pin(project.getProject());
 
 		if (state.getFormatVersion() != ProjectState.FORMAT_VERSION) {
 			state.setFormatVersion(ProjectState.FORMAT_VERSION);
 			result = NEEDS_FULL_BUILD;
 		}
 
+		// settings changes are applied with as little work as each requires, rather than by rebuilding the project
+		boolean reprocess = false;
+
 		IPreferencesService prefs = Platform.getPreferencesService();
 		String path = prefs.getString(Activator.PLUGIN_ID, Activator.PREF_PATH, Activator.DEFAULT_PATH, new IScopeContext[] { new ProjectScope(project.getProject()), InstanceScope.INSTANCE });
 		if (!path.equals(state.getPath())) {
 			state.setPath(path);
-			result = NEEDS_FULL_BUILD;
+			reprocess |= !relocateModelFiles(project.getProject(), projectContext, path);
 		}
 
+		ValidationErrorLevel oldErrorLevel = state.getErrorLevel();
+		ValidationErrorLevel oldMissingUnbindMethodLevel = state.getMissingUnbindMethodLevel();
+
 		String errorLevelStr = prefs.getString(Activator.PLUGIN_ID, Activator.PREF_VALIDATION_ERROR_LEVEL, ValidationErrorLevel.error.toString(), new IScopeContext[] { new ProjectScope(project.getProject()), InstanceScope.INSTANCE });
 		ValidationErrorLevel errorLevel = getEnumValue(errorLevelStr, ValidationErrorLevel.class, ValidationErrorLevel.error);
 
-		if (errorLevel != state.getErrorLevel()) {
+		if (errorLevel != oldErrorLevel) {
 			state.setErrorLevel(errorLevel);
-			result = NEEDS_FULL_BUILD;
+			reprocess |= !updateProblemSeverity(project.getProject(), Activator.PREF_VALIDATION_ERROR_LEVEL, oldErrorLevel, errorLevel);
 		}
 
 		String missingUnbindMethodLevelStr = prefs.getString(Activator.PLUGIN_ID, Activator.PREF_MISSING_UNBIND_METHOD_ERROR_LEVEL, errorLevelStr, new IScopeContext[] { new ProjectScope(project.getProject()), InstanceScope.INSTANCE });
 		ValidationErrorLevel missingUnbindMethodLevel = getEnumValue(missingUnbindMethodLevelStr, ValidationErrorLevel.class, errorLevel);
 
-		if (missingUnbindMethodLevel != state.getMissingUnbindMethodLevel()) {
+		if (missingUnbindMethodLevel != state.getMissingUnbindMethodLevel())
 			state.setMissingUnbindMethodLevel(missingUnbindMethodLevel);
-			result = NEEDS_FULL_BUILD;
-		}
+
+		if (missingUnbindMethodLevel != oldMissingUnbindMethodLevel)
+			reprocess |= !updateProblemSeverity(project.getProject(), Activator.PREF_MISSING_UNBIND_METHOD_ERROR_LEVEL, oldMissingUnbindMethodLevel, missingUnbindMethodLevel);
 
 		Activator.getDefault().listenForClasspathPreferenceChanges(project);
 
+		// components that depend on types changed in other projects (since our last build)
+		Collection<String> dependents = pendingDependents.remove(project.getProject());
+
+		// a full build reprocesses everything anyway
+		if (result != NEEDS_FULL_BUILD) {
+			if (reprocess)
+				reprocessComponents(project);
+			else if (dependents != null)
+				reprocessComponents(project, dependents);
+		}
+
+		projectContext.getMetrics().addTime(BuildMetrics.Phase.aboutToBuild, System.nanoTime() - start);
 		return result;
 	}
 
+	/**
+	 * Moves all generated files into the given folder, based solely on their
+	 * current mappings (i.e., without processing any CUs); the moves are
+	 * staged with the project's other changes, so that they're made in a
+	 * single workspace operation, followed by a single manifest and
+	 * build.properties update. Returns <code>false</code> if the project's
+	 * state doesn't support this.
+	 */
+	private static boolean relocateModelFiles(IProject project, ProjectContext projectContext, String path) {
+		ProjectState state = projectContext.getState();
+		IPath folder = new Path(path);
+		HashMap<String, String> dsKeys = new HashMap<String, String>();
+		for (String dsKey : state.getModelFileKeys()) {
+			String newDSKey = folder.append(Path.fromPortableString(dsKey).lastSegment()).toPortableString();
+			if (!newDSKey.equals(dsKey))
+				dsKeys.put(dsKey, newDSKey);
+		}
+
+		// remember which files are up to date before they're moved
+		HashMap<String, ComponentDescriptor> upToDate = new HashMap<String, ComponentDescriptor>();
+		for (String dsKey : dsKeys.keySet()) {
+			IFile file = PDEProject.getBundleRelativeFile(project, Path.fromPortableString(dsKey));
+			for (String type : state.getModelFileTypes(dsKey)) {
+				ComponentDescriptor descriptor = state.getComponentDescriptor(type);
+				if (descriptor != null && file.exists() && state.isUpToDate(type, descriptor.getFingerprint(), file.getModificationStamp()))
+					upToDate.put(type, descriptor);
+			}
+		}
+
+		if (!state.relocateModelFiles(dsKeys))
+			return false;
+
+		if (debug.isDebugging())
+			debug.traceEvent("Relocating %d generated files in project %s to %s.", dsKeys.size(), project.getName(), path); //$NON-NLS-1$
+
+		ModelFileWriter writer = projectContext.getWriter();
+		for (Map.Entry<String, String> entry : dsKeys.entrySet()) {
+			IFile file = PDEProject.getBundleRelativeFile(project, Path.fromPortableString(entry.getKey()));
+			IFile newFile = PDEProject.getBundleRelativeFile(project, Path.fromPortableString(entry.getValue()));
+			writer.move(file, newFile);
+
+			// descriptors include their file, so update them (and their fingerprints) to keep moved files up to date
+			for (String type : state.getModelFileTypes(entry.getValue())) {
+				ComponentDescriptor descriptor = upToDate.get(type);
+				if (descriptor == null)
+					continue;
+
+				descriptor = descriptor.copy();
+				descriptor.setDSKey(entry.getValue());
+				state.setComponentDescriptor(type, descriptor);
+				writer.setFingerprint(newFile, type, descriptor.getFingerprint());
+			}
+		}
+
+		// old files are no longer mapped, and will be removed from the manifest and build.properties
+		projectContext.getAbandoned().addAll(dsKeys.keySet());
+		return true;
+	}
+
+	/**
+	 * Updates the severity of (or deletes) existing problem markers governed
+	 * by the given validation level preference. Returns <code>false</code> if
+	 * that isn't sufficient, i.e., if problems not previously reported must
+	 * now be found by reprocessing the project's components.
+	 */
+	private static boolean updateProblemSeverity(IProject project, String levelKey, ValidationErrorLevel oldLevel, ValidationErrorLevel newLevel) {
+		if (oldLevel.isNone())
+			return newLevel.isNone();
+
+		try {
+			IMarker[] markers = project.findMarkers(DSAnnotationProblem.MARKER_TYPE, false, IResource.DEPTH_INFINITE);
+			for (IMarker marker : markers) {
+				// can't tell which level governs markers reported before levels were recorded
+				if (marker.getAttribute(DSAnnotationProblem.MARKER_ATTRIBUTE_LEVEL_KEY, null) == null)
+					return false;
+			}
+
+			int count = 0;
+			for (IMarker marker : markers) {
+				if (!levelKey.equals(marker.getAttribute(DSAnnotationProblem.MARKER_ATTRIBUTE_LEVEL_KEY, null)))
+					continue;
+
+				if (newLevel.isNone())
+					marker.delete();
+				else
+					marker.setAttribute(IMarker.SEVERITY, newLevel.isError() ? IMarker.SEVERITY_ERROR : IMarker.SEVERITY_WARNING);
+
+				++count;
+			}
+
+			if (debug.isDebugging())
+				debug.traceEvent("Changed %d problem markers from %s to %s in project %s.", count, oldLevel, newLevel, project.getName()); //$NON-NLS-1$
+
+			return true;
+		} catch (CoreException e) {
+			Activator.log(e);
+			return false;
+		}
+	}
+
 	private <E extends Enum<E>> E getEnumValue(String property, Class<E> enumType, E defaultValue) {
 		try {
 			return Enum.valueOf(enumType, property);
@@ -184,18 +359,8 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 	}
 
 	private static ProjectState getState(IJavaProject project, int[] result) {
-		ProjectState state = null;
-		try {
-			Object value = project.getProject().getSessionProperty(PROP_STATE);
-			if (value instanceof SoftReference<?>) {
-				@SuppressWarnings("unchecked")
-				SoftReference<ProjectState> ref = (SoftReference<ProjectState>) value;
-				state = ref.get();
-			}
-		} catch (CoreException e) {
-			Activator.log(e);
-		}
-
+		ProjectStateCache cache = Activator.getDefault().getStateCache();
+		ProjectState state = cache.get(project.getProject(), getStateTimestamp(project.getProject()));
 		if (state == null) {
 			try {
 				state = loadState(project.getProject());
@@ -209,11 +374,8 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 					result[0] = NEEDS_FULL_BUILD;
 			}
 
-			try {
-				project.getProject().setSessionProperty(PROP_STATE, new SoftReference<ProjectState>(state));
-			} catch (CoreException e) {
-				Activator.log(e);
-			}
+			// loading may have converted or compacted the file, so check its timestamp again
+			cache.put(project.getProject(), state, getStateTimestamp(project.getProject()));
 		}
 
 		return state;
@@ -223,22 +385,65 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 		File stateFile = getStateFile(project);
 		if (!stateFile.canRead()) {
 			if (debug.isDebugging())
-				debug.trace(String.format("Missing or invalid project state file: %s", stateFile)); //$NON-NLS-1$
+				debug.traceEvent("Missing or invalid project state file: %s", stateFile); //$NON-NLS-1$
 
 			return null;
 		}
 
-		ObjectInputStream in = new ObjectInputStream(new FileInputStream(stateFile));
+		ProjectState state;
+		FileInputStream in = new FileInputStream(stateFile);
 		try {
-			ProjectState state = (ProjectState) in.readObject();
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			ByteBuffer buf;
+			if (size >= STATE_FILE_MAP_THRESHOLD && canMapStateFile()) {
+				buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				buf = ByteBuffer.allocate((int) size);
+				while (buf.hasRemaining() && channel.read(buf) != -1) {
+					// keep reading
+				}
 
-			if (debug.isDebugging()) {
-				debug.trace(String.format("Loaded state for project: %s", project.getName())); //$NON-NLS-1$
-				for (String cuKey : state.getCompilationUnits())
-					debug.trace(String.format("%s -> %s", cuKey, state.getModelFiles(cuKey))); //$NON-NLS-1$
+				buf.flip();
 			}
 
-			return state;
+			state = ProjectState.isBinary(buf) ? ProjectState.read(buf) : null;
+		} finally {
+			in.close();
+		}
+
+		if (state != null)
+			getJournal(project).replay(state);
+
+		if (state == null) {
+			state = loadLegacyState(stateFile);
+
+			// format 1 only differs in encoding
+			if (state.getFormatVersion() == 1)
+				state.setFormatVersion(ProjectState.FORMAT_VERSION);
+
+			// write it back in current format
+			try {
+				compactState(project, state);
+			} catch (IOException e) {
+				Activator.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Error converting project state.", e)); //$NON-NLS-1$
+			}
+		}
+
+		if (debug.isDebugging()) {
+			debug.traceEvent("Loaded state for project: %s", project.getName()); //$NON-NLS-1$
+			for (String cuKey : state.getCompilationUnits())
+				// formatted now, as the (possibly live) collection may change before the event is flushed
+				debug.traceEvent("%s -> %s", cuKey, String.valueOf(state.getModelFiles(cuKey))); //$NON-NLS-1$
+		}
+
+		return state;
+	}
+
+	private static ProjectState loadLegacyState(File stateFile) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(stateFile)));
+		try {
+			return (ProjectState) in.readObject();
 		} catch (ClassNotFoundException e) {
 			IOException ex = new IOException("Unable to deserialize project state."); //$NON-NLS-1$
 			ex.initCause(e);
@@ -248,152 +453,346 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 		}
 	}
 
+	private static boolean canMapStateFile() {
+		// Windows won't let us replace the file while it's still mapped (i.e., until the buffer is collected)
+		return !Platform.OS_WIN32.equals(Platform.getOS());
+	}
+
 	@Override
 	public void buildFinished(IJavaProject project) {
 		ProjectContext projectContext = processingContext.remove(project);
 		if (projectContext != null) {
-			ProjectState state = projectContext.getState();
-			// check if unprocessed CUs still exist; if not, their mapped files are now abandoned
-			HashSet<String> abandoned = new HashSet<String>(projectContext.getAbandoned());
-			for (String cuKey : projectContext.getUnprocessed()) {
-				boolean exists = false;
+			BuildMetrics metrics = projectContext.getMetrics();
+
+			try {
+				// write out generated files (this may also update state)
+				long start = System.nanoTime();
 				try {
-					IJavaElement cu = project.findElement(new Path(cuKey));
-					IResource file;
-					if (cu != null && cu.getElementType() == IJavaElement.COMPILATION_UNIT && (file = cu.getResource()) != null && file.exists())
-						exists = true;
-				} catch (JavaModelException e) {
+					projectContext.getWriter().flush(null);
+				} catch (CoreException e) {
 					Activator.log(e);
+				} finally {
+					metrics.addTime(BuildMetrics.Phase.commitFiles, System.nanoTime() - start);
+				}
+
+				if (!projectContext.getProblems().isEmpty()) {
+					try {
+						reportProblems(project.getProject(), projectContext.getProblems());
+					} catch (CoreException e) {
+						Activator.log(e);
+					}
 				}
 
-				if (!exists) {
+				ProjectState state = projectContext.getState();
+				// check if unprocessed CUs still exist; if not, their mapped files are now abandoned
+				HashSet<String> abandoned = new HashSet<String>(projectContext.getAbandoned());
+				start = System.nanoTime();
+				Collection<String> missing = findMissingCompilationUnits(project, projectContext.getUnprocessed());
+				if (debug.isDebugging())
+					debug.traceEvent("Checked %d unprocessed CUs in %d ms.", projectContext.getUnprocessed().size(), (System.nanoTime() - start) / 1000000); //$NON-NLS-1$
+
+				for (String cuKey : missing) {
 					if (debug.isDebugging())
-						debug.trace(String.format("Mapped CU %s no longer exists.", cuKey)); //$NON-NLS-1$
+						debug.traceEvent("Mapped CU %s no longer exists.", cuKey); //$NON-NLS-1$
 
 					Collection<String> dsKeys = state.removeMappings(cuKey);
 					if (dsKeys != null)
 						abandoned.addAll(dsKeys);
 				}
-			}
 
-			// retain abandoned files that are still mapped elsewhere
-			HashSet<String> retained = new HashSet<String>();
-			for (String cuKey : state.getCompilationUnits()) {
-				Collection<String> dsKeys = state.getModelFiles(cuKey);
-				if (dsKeys != null)
-					retained.addAll(dsKeys);
-			}
+				// retain abandoned files that are still mapped elsewhere
+				Collection<String> retained = state.getModelFileKeys();
 
-			try {
-				IMarker[] cpMarkers = project.getProject().findMarkers(BUILDPATH_PROBLEM_MARKER, false, IResource.DEPTH_ZERO);
+				try {
+					IMarker[] cpMarkers = project.getProject().findMarkers(BUILDPATH_PROBLEM_MARKER, false, IResource.DEPTH_ZERO);
 
-				if (retained.isEmpty()) {
-					for (IMarker marker : cpMarkers) {
-						marker.delete();
-					}
-				} else {
-					abandoned.removeAll(retained);
-
-					// check if we need a permanent annotations classpath entry
-					boolean markerNeeded = false;
-					IPackageFragmentRoot[] roots = project.getPackageFragmentRoots();
-					for (int i = roots.length - 1; i >= 0; --i) {
-						IPackageFragmentRoot root = roots[i];
-						IPackageFragment fragment = root.getPackageFragment(ANNOTATIONS_PACKAGE);
-						if (fragment.exists()) {
-							IClasspathEntry entry = root.getResolvedClasspathEntry();
-							IClasspathAttribute[] attrs = entry.getExtraAttributes();
-							for (IClasspathAttribute attr : attrs) {
-								if (Constants.CP_ATTRIBUTE.equals(attr.getName()) && Boolean.parseBoolean(attr.getValue())) {
-									markerNeeded = true;
-									break;
+					if (retained.isEmpty()) {
+						for (IMarker marker : cpMarkers) {
+							marker.delete();
+						}
+					} else {
+						for (Iterator<String> i = abandoned.iterator(); i.hasNext();) {
+							if (state.isModelFileMapped(i.next()))
+								i.remove();
+						}
+
+						// check if we need a permanent annotations classpath entry
+						boolean markerNeeded = false;
+						IPackageFragmentRoot[] roots = project.getPackageFragmentRoots();
+						for (int i = roots.length - 1; i >= 0; --i) {
+							IPackageFragmentRoot root = roots[i];
+							IPackageFragment fragment = root.getPackageFragment(ANNOTATIONS_PACKAGE);
+							if (fragment.exists()) {
+								IClasspathEntry entry = root.getResolvedClasspathEntry();
+								IClasspathAttribute[] attrs = entry.getExtraAttributes();
+								for (IClasspathAttribute attr : attrs) {
+									if (Constants.CP_ATTRIBUTE.equals(attr.getName()) && Boolean.parseBoolean(attr.getValue())) {
+										markerNeeded = true;
+										break;
+									}
 								}
+
+								break;
 							}
+						}
 
-							break;
+						if (markerNeeded) {
+							if (cpMarkers.length == 0) {
+								IMarker marker = project.getProject().createMarker(BUILDPATH_PROBLEM_MARKER);
+								marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_WARNING);
+								marker.setAttribute(IMarker.PRIORITY, IMarker.PRIORITY_HIGH);
+								marker.setAttribute(IMarker.MESSAGE, Messages.DSAnnotationCompilationParticipant_buildpathProblemMarker_message);
+								marker.setAttribute(IMarker.LOCATION, Messages.DSAnnotationCompilationParticipant_buildpathProblemMarker_location);
+							}
+						} else {
+							for (IMarker marker : cpMarkers) {
+								marker.delete();
+							}
 						}
 					}
+				} catch (CoreException e) {
+					Activator.log(e);
+				}
 
-					if (markerNeeded) {
-						if (cpMarkers.length == 0) {
-							IMarker marker = project.getProject().createMarker(BUILDPATH_PROBLEM_MARKER);
-							marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_WARNING);
-							marker.setAttribute(IMarker.PRIORITY, IMarker.PRIORITY_HIGH);
-							marker.setAttribute(IMarker.MESSAGE, Messages.DSAnnotationCompilationParticipant_buildpathProblemMarker_message);
-							marker.setAttribute(IMarker.LOCATION, Messages.DSAnnotationCompilationParticipant_buildpathProblemMarker_location);
-						}
-					} else {
-						for (IMarker marker : cpMarkers) {
-							marker.delete();
+				if (projectContext.isChanged()) {
+					start = System.nanoTime();
+					try {
+						saveState(project.getProject(), state);
+					} catch (IOException e) {
+						Activator.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Error saving file mappings.", e)); //$NON-NLS-1$
+					} finally {
+						metrics.addTime(BuildMetrics.Phase.saveState, System.nanoTime() - start);
+					}
+				}
+
+				// delete all abandoned files
+				ArrayList<IStatus> deleteStatuses = new ArrayList<IStatus>(2);
+				for (String dsKey : abandoned) {
+					IPath path = Path.fromPortableString(dsKey);
+
+					if (debug.isDebugging())
+						debug.traceEvent("Deleting %s", path); //$NON-NLS-1$
+
+					IFile file = PDEProject.getBundleRelativeFile(project.getProject(), path);
+					if (file.exists()) {
+						try {
+							file.delete(true, null);
+							metrics.increment(BuildMetrics.Counter.filesDeleted);
+						} catch (CoreException e) {
+							deleteStatuses.add(e.getStatus());
 						}
 					}
 				}
-			} catch (CoreException e) {
-				Activator.log(e);
+
+				if (!deleteStatuses.isEmpty())
+					Activator.log(new MultiStatus(Activator.PLUGIN_ID, 0, deleteStatuses.toArray(new IStatus[deleteStatuses.size()]), "Error deleting generated files.", null)); //$NON-NLS-1$
+
+				if (!retained.isEmpty() || !abandoned.isEmpty()) {
+					start = System.nanoTime();
+					updateProject(project.getProject(), retained, abandoned);
+					metrics.addTime(BuildMetrics.Phase.updateProject, System.nanoTime() - start);
+				}
+			} finally {
+				Activator.getDefault().getStateCache().unpin(project.getProject());
 			}
 
-			if (projectContext.isChanged()) {
+			if (!projectContext.getDependentProjects().isEmpty())
+				updateDependentProjects(projectContext.getDependentProjects());
+
+			metrics.finish();
+			lastMetrics.put(project.getElementName(), metrics);
+			if (Platform.getPreferencesService().getBoolean(Activator.PLUGIN_ID, Activator.PREF_BUILD_METRICS, false, null)) {
 				try {
-					saveState(project.getProject(), state);
+					metrics.write(new File(project.getProject().getWorkingLocation(Activator.PLUGIN_ID).toFile(), METRICS_FILENAME));
 				} catch (IOException e) {
-					Activator.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Error saving file mappings.", e)); //$NON-NLS-1$
+					Activator.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Error writing build metrics.", e)); //$NON-NLS-1$
 				}
 			}
 
-			// delete all abandoned files
-			ArrayList<IStatus> deleteStatuses = new ArrayList<IStatus>(2);
-			for (String dsKey : abandoned) {
-				IPath path = Path.fromPortableString(dsKey);
+			if (debug.isDebugging())
+				debug.traceEvent("Build metrics for project %s: %s", project.getElementName(), metrics.toString()); //$NON-NLS-1$
+		}
 
-				if (debug.isDebugging())
-					debug.trace(String.format("Deleting %s", path)); //$NON-NLS-1$
+		if (debug.isDebugging())
+			debug.traceEvent("Build finished for project: %s", project.getElementName()); //$NON-NLS-1$
+	}
 
-				IFile file = PDEProject.getBundleRelativeFile(project.getProject(), path);
-				if (file.exists()) {
-					try {
-						file.delete(true, null);
-					} catch (CoreException e) {
-						deleteStatuses.add(e.getStatus());
+	/**
+	 * Replaces problem markers of the given CUs, which were processed outside
+	 * of the Java builder, with markers of the problems found.
+	 */
+	private static void reportProblems(IProject project, final Map<IFile, Collection<DSAnnotationProblem>> problems) throws CoreException {
+		project.getWorkspace().run(new IWorkspaceRunnable() {
+			public void run(IProgressMonitor monitor) throws CoreException {
+				for (Map.Entry<IFile, Collection<DSAnnotationProblem>> entry : problems.entrySet()) {
+					IFile file = entry.getKey();
+					if (!file.exists())
+						continue;
+
+					file.deleteMarkers(DSAnnotationProblem.MARKER_TYPE, false, IResource.DEPTH_ZERO);
+					for (DSAnnotationProblem problem : entry.getValue()) {
+						IMarker marker = file.createMarker(DSAnnotationProblem.MARKER_TYPE);
+						marker.setAttributes(
+								new String[] {
+										IMarker.MESSAGE,
+										IMarker.SEVERITY,
+										IMarker.CHAR_START,
+										IMarker.CHAR_END,
+										IMarker.LINE_NUMBER,
+										DSAnnotationProblem.MARKER_ATTRIBUTE_LEVEL_KEY },
+								new Object[] {
+										problem.getMessage(),
+										Integer.valueOf(problem.isError() ? IMarker.SEVERITY_ERROR : IMarker.SEVERITY_WARNING),
+										Integer.valueOf(problem.getSourceStart()),
+										Integer.valueOf(problem.getSourceEnd() + 1),
+										Integer.valueOf(problem.getSourceLineNumber()),
+										problem.getLevelKey() });
 					}
 				}
 			}
+		}, project, IWorkspace.AVOID_UPDATE, null);
+	}
+
+	/**
+	 * Returns those of the given CUs that no longer exist on the project's
+	 * classpath. Rather than resolving each CU through the Java model, source
+	 * folders are scanned in a single pass over their resource proxies.
+	 */
+	private static Collection<String> findMissingCompilationUnits(final IJavaProject project, Collection<String> cuKeys) {
+		final HashSet<String> missing = new HashSet<String>(cuKeys);
+		if (missing.isEmpty())
+			return missing;
+
+		try {
+			ArrayList<IContainer> containers = new ArrayList<IContainer>();
+			final HashSet<IPath> rootPaths = new HashSet<IPath>();
+			for (IPackageFragmentRoot root : project.getPackageFragmentRoots()) {
+				if (root.getKind() != IPackageFragmentRoot.K_SOURCE)
+					continue;
+
+				IResource resource = root.getResource();
+				if (resource instanceof IContainer && resource.isAccessible()) {
+					containers.add((IContainer) resource);
+					rootPaths.add(resource.getFullPath());
+				}
+			}
+
+			for (IContainer container : containers) {
+				final int rootSegmentCount = container.getFullPath().segmentCount();
+				container.accept(new IResourceProxyVisitor() {
+					public boolean visit(IResourceProxy proxy) throws CoreException {
+						if (missing.isEmpty())
+							return false;
+
+						if (proxy.getType() == IResource.FILE) {
+							if (JavaCore.isJavaLikeFileName(proxy.getName())) {
+								// same as AnnotationProcessor.getCompilationUnitKey(ICompilationUnit)
+								IPath path = proxy.requestFullPath().removeFirstSegments(rootSegmentCount);
+								String cuKey = String.format("%s/%s", path.removeLastSegments(1), path.lastSegment()); //$NON-NLS-1$
+								if (missing.contains(cuKey) && project.isOnClasspath(proxy.requestResource()))
+									missing.remove(cuKey);
+							}
 
-			if (!deleteStatuses.isEmpty())
-				Activator.log(new MultiStatus(Activator.PLUGIN_ID, 0, deleteStatuses.toArray(new IStatus[deleteStatuses.size()]), "Error deleting generated files.", null)); //$NON-NLS-1$
+							return false;
+						}
 
-			if (!retained.isEmpty() || !abandoned.isEmpty())
-				updateProject(project.getProject(), retained, abandoned);
+						// nested source folders are scanned on their own
+						IPath path = proxy.requestFullPath();
+						return path.segmentCount() == rootSegmentCount || !rootPaths.contains(path);
+					}
+				}, IResource.NONE);
+			}
+		} catch (CoreException e) {
+			// CUs not found so far are considered missing
+			Activator.log(e);
 		}
 
-		if (debug.isDebugging())
-			debug.trace(String.format("Build finished for project: %s", project.getElementName())); //$NON-NLS-1$
+		return missing;
 	}
 
-	private void saveState(IProject project, ProjectState state) throws IOException {
+	private static void saveState(IProject project, ProjectState state) throws IOException {
 		File stateFile = getStateFile(project);
 
 		if (debug.isDebugging()) {
-			debug.trace(String.format("Saving state for project: %s", project.getName())); //$NON-NLS-1$
-			for (String cuKey : state.getCompilationUnits())
-				debug.trace(String.format("%s -> %s", cuKey, state.getModelFiles(cuKey))); //$NON-NLS-1$
+			debug.traceEvent("Saving state for project: %s", project.getName()); //$NON-NLS-1$
+			for (String cuKey : state.getChangedCompilationUnits())
+				// formatted now, as the (possibly live) collection may change before the event is flushed
+				debug.traceEvent("%s -> %s", cuKey, String.valueOf(state.getModelFiles(cuKey))); //$NON-NLS-1$
 		}
 
-		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(stateFile));
+		// append changes to the journal, unless it's time to compact it into a new snapshot
+		ProjectStateJournal journal = getJournal(project);
+		if (state.getGeneration() != 0
+				&& state.isJournalable()
+				&& stateFile.isFile()
+				&& journal.length() < Math.max(JOURNAL_COMPACTION_THRESHOLD, stateFile.length())) {
+			try {
+				journal.append(state);
+				state.clearChanges();
+				Activator.getDefault().getStateCache().update(project, state, getStateTimestamp(project));
+				return;
+			} catch (IOException e) {
+				Activator.log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, "Error appending to project state journal.", e)); //$NON-NLS-1$
+			}
+		}
+
+		compactState(project, state);
+	}
+
+	private static void compactState(IProject project, ProjectState state) throws IOException {
+		File stateFile = getStateFile(project);
+
+		if (debug.isDebugging())
+			debug.traceEvent("Writing state snapshot for project: %s", project.getName()); //$NON-NLS-1$
+
+		// write new snapshot next to the old one, so that a failed write leaves the old one (and its journal) intact
+		File tempFile = new File(stateFile.getParentFile(), STATE_FILENAME + ".tmp"); //$NON-NLS-1$
+		long generation = state.getGeneration();
+		state.setGeneration(generation + 1);
+		boolean written = false;
 		try {
-			out.writeObject(state);
+			FileOutputStream fileOut = new FileOutputStream(tempFile);
+			OutputStream out = new BufferedOutputStream(fileOut);
+			try {
+				state.write(out);
+				out.flush();
+				fileOut.getFD().sync();
+			} finally {
+				out.close();
+			}
+
+			if (!tempFile.renameTo(stateFile)) {
+				// some platforms (e.g., Windows) won't rename over an existing file
+				if (!stateFile.delete() || !tempFile.renameTo(stateFile))
+					throw new IOException(String.format("Unable to replace project state file: %s", stateFile)); //$NON-NLS-1$
+			}
+
+			written = true;
 		} finally {
-			out.close();
+			if (!written) {
+				state.setGeneration(generation);
+				tempFile.delete();
+			}
 		}
+
+		// the old journal no longer matches the snapshot's generation, so it would be ignored anyway
+		getJournal(project).delete();
+		state.clearChanges();
+
+		Activator.getDefault().getStateCache().update(project, state, getStateTimestamp(project));
 	}
 
 	private void updateProject(IProject project, final Collection<String> retained, final Collection<String> abandoned) {
-		PDEModelUtility.modifyModel(new ModelModification(project) {
-			@Override
-			protected void modifyModel(IBaseModel model, IProgressMonitor monitor) throws CoreException {
-				if (model instanceof IBundlePluginModelBase)
-					updateManifest((IBundlePluginModelBase) model, retained, abandoned);
-			}
-		}, null);
+		// only open the manifest for editing if the header actually needs to change
+		if (isManifestUpdateNeeded(project, retained, abandoned)) {
+			PDEModelUtility.modifyModel(new ModelModification(project) {
+				@Override
+				protected void modifyModel(IBaseModel model, IProgressMonitor monitor) throws CoreException {
+					if (model instanceof IBundlePluginModelBase)
+						updateManifest((IBundlePluginModelBase) model, retained, abandoned);
+				}
+			}, null);
+		}
 
 		// note: we can't combine both manifest and build.properties into a single edit
 		PDEModelUtility.modifyModel(new ModelModification(PDEProject.getBuildProperties(project)) {
@@ -405,79 +804,61 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 		}, null);
 	}
 
-	private void updateManifest(IBundlePluginModelBase model, Collection<String> retained, Collection<String> abandoned) {
-		IBundleModel bundleModel = model.getBundleModel();
-		LinkedHashSet<IPath> entries = new LinkedHashSet<IPath>();
-		collectManifestEntries(bundleModel, entries);
-
-		boolean changed = false;
-		for (String dsKey : abandoned) {
-			IPath path = Path.fromPortableString(dsKey);
-			changed |= entries.remove(path);
-		}
-
-		for (String dsKey : retained) {
-			IPath path = Path.fromPortableString(dsKey);
-			if (!isManifestEntryIncluded(entries, path))
-				changed |= entries.add(path);
-		}
-
-		if (!changed)
-			return;
-
-		StringBuilder buf = new StringBuilder();
-		for (IPath entry : entries) {
-			if (buf.length() > 0)
-				buf.append(",\n "); //$NON-NLS-1$
+	private boolean isManifestUpdateNeeded(IProject project, Collection<String> retained, Collection<String> abandoned) {
+		// read the header from the manifest itself; the plug-in registry's model may not reflect its latest changes yet
+		IFile manifest = PDEProject.getManifest(project);
+		if (!manifest.exists())
+			return true;
 
-			buf.append(entry.toString());
+		String value;
+		try {
+			value = getManifestHeader(manifest, DS_MANIFEST_KEY);
+		} catch (CoreException e) {
+			Activator.log(e);
+			return true;
 		}
 
-		String value = buf.toString();
-
-		if (debug.isDebugging())
-			debug.trace(String.format("Setting manifest header in %s to %s: %s", model.getUnderlyingResource().getFullPath(), DS_MANIFEST_KEY, value)); //$NON-NLS-1$
-
-		// note: contrary to javadoc, setting header value to null does *not* remove it; setting it to empty string does
-		bundleModel.getBundle().setHeader(DS_MANIFEST_KEY, value);
+		ServiceComponentHeader header = new ServiceComponentHeader(value);
+		return header.update(retained, abandoned);
 	}
 
-	private void collectManifestEntries(IBundleModel bundleModel, Collection<IPath> entries) {
-		String header = bundleModel.getBundle().getHeader(DS_MANIFEST_KEY);
-		if (header == null)
-			return;
+	private static String getManifestHeader(IFile manifest, String name) throws CoreException {
+		InputStream in = manifest.getContents(true);
+		try {
+			Map<String, String> headers = ManifestElement.parseBundleManifest(in, null);
+			for (Map.Entry<String, String> entry : headers.entrySet()) {
+				// header names are case-insensitive
+				if (name.equalsIgnoreCase(entry.getKey()))
+					return entry.getValue();
+			}
 
-		String[] elements = header.split("\\s*,\\s*"); //$NON-NLS-1$
-		for (String element : elements) {
-			if (element.length() != 0)
-				entries.add(new Path(element));
+			return null;
+		} catch (IOException e) {
+			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, String.format("Error reading manifest '%s'.", manifest.getFullPath()), e)); //$NON-NLS-1$
+		} catch (BundleException e) {
+			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, String.format("Error reading manifest '%s'.", manifest.getFullPath()), e)); //$NON-NLS-1$
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// ignore
+			}
 		}
 	}
 
-	private boolean isManifestEntryIncluded(Collection<IPath> entries, IPath path) {
-		for (IPath entry : entries) {
-			if (entry.equals(path))
-				return true;
-
-			if (entry.removeLastSegments(1).equals(path.removeLastSegments(1))) {
-				// check if wildcard match (last path segment)
-				Filter filter;
-				try {
-					filter = FrameworkUtil.createFilter("(filename=" + sanitizeFilterValue(entry.lastSegment()) + ")"); //$NON-NLS-1$ //$NON-NLS-2$
-				} catch (InvalidSyntaxException e) {
-					continue;
-				}
+	private void updateManifest(IBundlePluginModelBase model, Collection<String> retained, Collection<String> abandoned) {
+		IBundleModel bundleModel = model.getBundleModel();
+		ServiceComponentHeader header = new ServiceComponentHeader(bundleModel.getBundle().getHeader(DS_MANIFEST_KEY));
+		if (!header.update(retained, abandoned))
+			return;
 
-				if (filter.matches(Collections.singletonMap("filename", path.lastSegment()))) //$NON-NLS-1$
-					return true;
-			}
-		}
+		String value = header.toString();
 
-		return false;
-	}
+		if (debug.isDebugging())
+			debug.traceEvent("Setting manifest header in %s to %s: %s", model.getUnderlyingResource().getFullPath(), DS_MANIFEST_KEY, value); //$NON-NLS-1$
 
-	private String sanitizeFilterValue(String value) {
-		return value.replace("\\", "\\\\").replace("(", "\\(").replace(")", "\\)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		// note: contrary to javadoc, setting header value to null does *not* remove it; setting it to empty string does
+		bundleModel.getBundle().setHeader(DS_MANIFEST_KEY, value);
 	}
 
 	private void updateBuildProperties(IBuildModel model, Collection<String> retained, Collection<String> abandoned) throws CoreException {
@@ -537,15 +918,33 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 	public void processAnnotations(BuildContext[] files) {
 		// we need to process CUs in context of a project; separate them by project
 		HashMap<IJavaProject, Map<ICompilationUnit, BuildContext>> filesByProject = new HashMap<IJavaProject, Map<ICompilationUnit, BuildContext>>();
+		HashMap<IJavaProject, Collection<String>> compiled = new HashMap<IJavaProject, Collection<String>>();
 		for (BuildContext file : files) {
 			if (debug.isDebugging())
-				debug.trace(String.format("Creating compilation unit from file %s.", file.getFile().getFullPath())); //$NON-NLS-1$
+				debug.traceEvent("Creating compilation unit from file %s.", file.getFile().getFullPath()); //$NON-NLS-1$
 
 			ICompilationUnit cu = JavaCore.createCompilationUnitFrom(file.getFile());
 			if (cu == null) {
 				if (debug.isDebugging())
 					// TODO should we log instead? Don't want to spam the error log though
-					debug.trace(String.format("Unable to create compilation unit from file %s.", file.getFile().getFullPath())); //$NON-NLS-1$
+					debug.traceEvent("Unable to create compilation unit from file %s.", file.getFile().getFullPath()); //$NON-NLS-1$
+
+				continue;
+			}
+
+			// any CU may declare types components depend on
+			Collection<String> fileKeys = compiled.get(cu.getJavaProject());
+			if (fileKeys == null) {
+				fileKeys = new ArrayList<String>();
+				compiled.put(cu.getJavaProject(), fileKeys);
+			}
+
+			// same as AnnotationProcessor.getFileKey(ICompilationUnit)
+			fileKeys.add(file.getFile().getFullPath().toPortableString());
+
+			if (!mayContainComponents(file.getContents(), cu)) {
+				if (debug.isDebugging())
+					debug.traceEvent("Skipping compilation unit %s; no reference to DS annotations.", file.getFile().getFullPath()); //$NON-NLS-1$
 
 				continue;
 			}
@@ -559,16 +958,463 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 			map.put(cu, file);
 		}
 
-		// process all CUs in each project
-		for (Map.Entry<IJavaProject, Map<ICompilationUnit, BuildContext>> entry : filesByProject.entrySet()) {
+		for (Map.Entry<IJavaProject, Collection<String>> entry : compiled.entrySet()) {
+			addDependents(entry.getKey(), entry.getValue(), filesByProject);
+		}
+
+		processAnnotations(filesByProject);
+	}
+
+	/**
+	 * Finds components whose resolution depended on types declared in the
+	 * given files (e.g., inherited bind-related methods). Those in the same
+	 * project are added to the CUs to process; those in other projects are
+	 * queued, and processed by an update of their project once this build
+	 * finishes (or by their project's next build, whichever comes first).
+	 */
+	private void addDependents(IJavaProject project, Collection<String> fileKeys, Map<IJavaProject, Map<ICompilationUnit, BuildContext>> filesByProject) {
+		ProjectContext projectContext = processingContext.get(project);
+		if (projectContext == null)
+			return;
+
+		ArrayList<IJavaProject> projects = new ArrayList<IJavaProject>();
+		ArrayList<ProjectState> states = new ArrayList<ProjectState>();
+		if (projectContext.getState().hasDependencies()) {
+			projects.add(project);
+			states.add(projectContext.getState());
+		}
+
+		for (IProject candidate : getDependentProjects(project.getProject())) {
+			if (!candidate.isOpen() || !isManaged(candidate))
+				continue;
+
+			IJavaProject javaProject = JavaCore.create(candidate);
+			ProjectState state = getState(javaProject);
+			if (state.hasDependencies()) {
+				projects.add(javaProject);
+				states.add(state);
+			}
+		}
+
+		if (projects.isEmpty())
+			return;
+
+		for (int i = 0, n = projects.size(); i < n; ++i) {
+			IJavaProject javaProject = projects.get(i);
+			Collection<String> dependents = states.get(i).getDependentTypes(fileKeys);
+			if (dependents.isEmpty())
+				continue;
+
 			if (debug.isDebugging())
-				debug.trace(String.format("Processing compilation units in project %s.", entry.getKey().getElementName())); //$NON-NLS-1$
+				debug.traceEvent("Found %d dependent components in project %s.", dependents.size(), javaProject.getElementName()); //$NON-NLS-1$
+
+			if (javaProject.equals(project)) {
+				Map<ICompilationUnit, BuildContext> map = filesByProject.get(project);
+				if (map == null) {
+					map = new HashMap<ICompilationUnit, BuildContext>();
+					filesByProject.put(project, map);
+				}
+
+				for (ICompilationUnit cu : findCompilationUnits(project, states.get(i).getDeclaringCompilationUnits(dependents))) {
+					// CUs being compiled are processed anyway
+					if (!map.containsKey(cu))
+						map.put(cu, null);
+				}
+
+				continue;
+			}
+
+			synchronized (pendingDependents) {
+				Collection<String> pending = pendingDependents.get(javaProject.getProject());
+				if (pending == null) {
+					pending = new HashSet<String>();
+					pendingDependents.put(javaProject.getProject(), pending);
+				}
+
+				pending.addAll(dependents);
+			}
+
+			projectContext.getDependentProjects().add(javaProject.getProject());
+		}
+	}
+
+	/**
+	 * Returns workspace projects whose bundles can see the given project's
+	 * types: those that depend on its bundle, as well as those that depend on
+	 * any bundle re-exporting it (transitively).
+	 */
+	private static Collection<IProject> getDependentProjects(IProject project) {
+		IPluginModelBase model = PluginRegistry.findModel(project);
+		BundleDescription bundle = model == null ? null : model.getBundleDescription();
+		if (bundle == null)
+			return Collections.emptySet();
+
+		LinkedHashSet<IProject> result = new LinkedHashSet<IProject>();
+		HashSet<BundleDescription> exporters = new HashSet<BundleDescription>();
+		LinkedList<BundleDescription> queue = new LinkedList<BundleDescription>();
+		exporters.add(bundle);
+		queue.add(bundle);
+		while (!queue.isEmpty()) {
+			BundleDescription supplier = queue.removeFirst();
+			for (BundleDescription dependent : supplier.getDependents()) {
+				IPluginModelBase dependentModel = PluginRegistry.findModel(dependent);
+				IResource resource = dependentModel == null ? null : dependentModel.getUnderlyingResource();
+				if (resource != null)
+					result.add(resource.getProject());
+
+				if (isReexported(dependent, supplier) && exporters.add(dependent))
+					queue.add(dependent);
+			}
+		}
+
+		result.remove(project);
+		return result;
+	}
+
+	private static boolean isReexported(BundleDescription bundle, BundleDescription supplier) {
+		for (BundleSpecification requiredBundle : bundle.getRequiredBundles()) {
+			if (requiredBundle.isExported() && supplier.equals(requiredBundle.getSupplier()))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Updates the given projects, whose components depend on types changed in
+	 * a build that just finished, unless they've since been built.
+	 */
+	private void updateDependentProjects(final Collection<IProject> projects) {
+		WorkspaceJob job = new WorkspaceJob(Messages.DSAnnotationCompilationParticipant_updateDependentsJobName) {
+			@Override
+			public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException {
+				for (IProject project : projects) {
+					if (project.isOpen() && pendingDependents.containsKey(project))
+						update(JavaCore.create(project), monitor);
+				}
+
+				return Status.OK_STATUS;
+			}
+		};
+
+		// updates run outside of the builder, so keep builds out
+		job.setRule(ResourcesPlugin.getWorkspace().getRuleFactory().buildRule());
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	/**
+	 * Generates component descriptors from all CUs of the given projects
+	 * outside of the Java builder (e.g., in a headless application); CUs of all
+	 * projects are processed together, in parallel. As with the builder, the
+	 * caller is expected to hold the workspace lock.
+	 */
+	public void generate(Collection<IJavaProject> projects) throws JavaModelException {
+		HashMap<IJavaProject, Map<ICompilationUnit, BuildContext>> filesByProject = new HashMap<IJavaProject, Map<ICompilationUnit, BuildContext>>();
+		for (IJavaProject project : projects) {
+			aboutToBuild(project);
+			filesByProject.put(project, getComponentCompilationUnits(project));
+		}
+
+		processAnnotations(filesByProject);
+
+		for (IJavaProject project : projects) {
+			buildFinished(project);
+		}
+	}
+
+	/**
+	 * Applies the current settings (e.g., after a preference change) to the
+	 * given project's generated files and problem markers, doing only as much
+	 * work as the changes require; the project is neither compiled nor, unless
+	 * its state is missing or obsolete, rebuilt. As with the builder, the
+	 * caller is expected to hold the workspace lock.
+	 */
+	public void update(IJavaProject project, IProgressMonitor monitor) throws CoreException {
+		if (debug.isDebugging())
+			debug.traceEvent("Updating project: %s", project.getElementName()); //$NON-NLS-1$
+
+		int result = aboutToBuild(project);
+		buildFinished(project);
+		if (result == NEEDS_FULL_BUILD)
+			project.getProject().build(IncrementalProjectBuilder.FULL_BUILD, monitor);
+	}
+
+	private void reprocessComponents(IJavaProject project) {
+		if (debug.isDebugging())
+			debug.traceEvent("Reprocessing components in project %s.", project.getElementName()); //$NON-NLS-1$
+
+		try {
+			processAnnotations(Collections.<IJavaProject, Map<ICompilationUnit, BuildContext>>singletonMap(project, getComponentCompilationUnits(project)));
+		} catch (JavaModelException e) {
+			Activator.log(e);
+		}
+	}
+
+	private void reprocessComponents(IJavaProject project, Collection<String> classNames) {
+		if (debug.isDebugging())
+			debug.traceEvent("Reprocessing %d dependent components in project %s.", classNames.size(), project.getElementName()); //$NON-NLS-1$
+
+		HashMap<ICompilationUnit, BuildContext> map = new HashMap<ICompilationUnit, BuildContext>();
+		for (ICompilationUnit cu : findCompilationUnits(project, processingContext.get(project).getState().getDeclaringCompilationUnits(classNames))) {
+			map.put(cu, null);
+		}
+
+		if (!map.isEmpty())
+			processAnnotations(Collections.<IJavaProject, Map<ICompilationUnit, BuildContext>>singletonMap(project, map));
+	}
+
+	/**
+	 * Returns the given project's source CUs with the given keys; those that no
+	 * longer exist are omitted.
+	 */
+	private static Collection<ICompilationUnit> findCompilationUnits(IJavaProject project, Collection<String> cuKeys) {
+		ArrayList<ICompilationUnit> cus = new ArrayList<ICompilationUnit>(cuKeys.size());
+		if (cuKeys.isEmpty())
+			return cus;
+
+		try {
+			IPackageFragmentRoot[] roots = project.getPackageFragmentRoots();
+			for (String cuKey : cuKeys) {
+				// same as AnnotationProcessor.getCompilationUnitKey(ICompilationUnit)
+				IPath path = new Path(cuKey);
+				String packageName = path.removeLastSegments(1).makeRelative().toString().replace('/', '.');
+				for (IPackageFragmentRoot root : roots) {
+					if (root.getKind() != IPackageFragmentRoot.K_SOURCE)
+						continue;
+
+					ICompilationUnit cu = root.getPackageFragment(packageName).getCompilationUnit(path.lastSegment());
+					if (cu.exists()) {
+						cus.add(cu);
+						break;
+					}
+				}
+			}
+		} catch (JavaModelException e) {
+			Activator.log(e);
+		}
+
+		return cus;
+	}
+
+	/**
+	 * Returns all source CUs of the given project that may contain components,
+	 * mapped to no build context. Problems found in such CUs are reported as
+	 * markers directly.
+	 */
+	private Map<ICompilationUnit, BuildContext> getComponentCompilationUnits(IJavaProject project) throws JavaModelException {
+		HashMap<ICompilationUnit, BuildContext> map = new HashMap<ICompilationUnit, BuildContext>();
+		for (IPackageFragmentRoot root : project.getPackageFragmentRoots()) {
+			if (root.getKind() != IPackageFragmentRoot.K_SOURCE)
+				continue;
+
+			for (IJavaElement child : root.getChildren()) {
+				if (!(child instanceof IPackageFragment))
+					continue;
 
-			processAnnotations(entry.getKey(), entry.getValue());
+				for (ICompilationUnit cu : ((IPackageFragment) child).getCompilationUnits()) {
+					String source = cu.getSource();
+					if (mayContainComponents(source == null ? null : source.toCharArray(), cu))
+						map.put(cu, null);
+				}
+			}
 		}
+
+		return map;
 	}
 
-	private void processAnnotations(IJavaProject javaProject, Map<ICompilationUnit, BuildContext> fileMap) {
+	private void processAnnotations(Map<IJavaProject, Map<ICompilationUnit, BuildContext>> filesByProject) {
+		if (filesByProject.isEmpty())
+			return;
+
+		// components are reconciled on separate threads while parsing continues; reconciling is the lighter part
+		int parallelism = getParallelism();
+		ComponentReconciler reconciler = new ComponentReconciler(parallelism > 1 ? Math.max(1, parallelism / 2) : 0);
+		try {
+			processAnnotations(filesByProject, parallelism, reconciler);
+		} finally {
+			// all staged changes must be in before the build finishes
+			reconciler.join();
+		}
+	}
+
+	private void processAnnotations(Map<IJavaProject, Map<ICompilationUnit, BuildContext>> filesByProject, int parallelism, ComponentReconciler reconciler) {
+		ChunkBudget budget = new ChunkBudget(getChunkMemory());
+		ArrayList<Partition> partitions = new ArrayList<Partition>();
+		if (parallelism > 1) {
+			int splitThreshold = getSplitThreshold();
+			for (Map.Entry<IJavaProject, Map<ICompilationUnit, BuildContext>> entry : filesByProject.entrySet()) {
+				partition(entry.getKey(), entry.getValue(), parallelism, splitThreshold, partitions);
+			}
+		}
+
+		if (partitions.size() <= 1) {
+			// process all CUs in each project
+			for (Map.Entry<IJavaProject, Map<ICompilationUnit, BuildContext>> entry : filesByProject.entrySet()) {
+				if (debug.isDebugging())
+					debug.traceEvent("Processing compilation units in project %s.", entry.getKey().getElementName()); //$NON-NLS-1$
+
+				processAnnotations(entry.getKey(), entry.getValue(), budget, reconciler);
+			}
+
+			return;
+		}
+
+		processAnnotations(partitions, Math.min(parallelism, partitions.size()), budget, reconciler);
+	}
+
+	private boolean mayContainComponents(char[] contents, ICompilationUnit cu) {
+		// any use of DS annotations must either import them or refer to them by qualified name
+		if (containsAnnotationsPackage(contents))
+			return true;
+
+		// CUs previously mapped to components must be processed so that their files may be abandoned
+		ProjectContext projectContext = processingContext.get(cu.getJavaProject());
+		if (projectContext == null)
+			return true;
+
+		Collection<String> dsKeys = projectContext.getState().getModelFiles(AnnotationProcessor.getCompilationUnitKey(cu));
+		return dsKeys != null && !dsKeys.isEmpty();
+	}
+
+	private static boolean containsAnnotationsPackage(char[] contents) {
+		if (contents == null)
+			return true;
+
+		char first = ANNOTATIONS_PACKAGE_CHARS[0];
+		int max = contents.length - ANNOTATIONS_PACKAGE_CHARS.length;
+		outer: for (int i = 0; i <= max; ++i) {
+			if (contents[i] != first)
+				continue;
+
+			for (int j = 1; j < ANNOTATIONS_PACKAGE_CHARS.length; ++j) {
+				if (contents[i + j] != ANNOTATIONS_PACKAGE_CHARS[j])
+					continue outer;
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
+	private int getParallelism() {
+		int parallelism = Platform.getPreferencesService().getInt(Activator.PLUGIN_ID, Activator.PREF_PARALLELISM, 0, null);
+		return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+	}
+
+	private int getSplitThreshold() {
+		int splitThreshold = Platform.getPreferencesService().getInt(Activator.PLUGIN_ID, Activator.PREF_SPLIT_THRESHOLD, 0, null);
+		return splitThreshold > 0 ? splitThreshold : DEFAULT_SPLIT_THRESHOLD;
+	}
+
+	private void partition(IJavaProject javaProject, Map<ICompilationUnit, BuildContext> fileMap, int parallelism, int splitThreshold, Collection<Partition> partitions) {
+		ICompilationUnit[] cuArr = fileMap.keySet().toArray(new ICompilationUnit[fileMap.size()]);
+		// each project gets its own partition; only projects large enough are split further
+		int count = Math.max(1, Math.min(parallelism, cuArr.length / splitThreshold));
+		int size = (cuArr.length + count - 1) / count;
+		for (int i = 0; i < cuArr.length; i += size) {
+			ICompilationUnit[] part = new ICompilationUnit[Math.min(size, cuArr.length - i)];
+			System.arraycopy(cuArr, i, part, 0, part.length);
+			partitions.add(new Partition(javaProject, fileMap, part));
+		}
+	}
+
+	private void processAnnotations(List<Partition> partitions, int threadCount, final ChunkBudget budget, final ComponentReconciler reconciler) {
+		if (debug.isDebugging())
+			debug.traceEvent("Processing %d partitions using %d threads.", partitions.size(), threadCount); //$NON-NLS-1$
+
+		// workers only parse and resolve bindings; ASTs are handed back to this (build) thread for processing
+		final BuildThreadExecutor buildThread = new BuildThreadExecutor();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory());
+		try {
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>(partitions.size());
+			for (final Partition partition : partitions) {
+				futures.add(buildThread.submit(executor, new Runnable() {
+					public void run() {
+						if (debug.isDebugging())
+							debug.traceEvent("Processing %d compilation units in project %s.", partition.cus.length, partition.project.getElementName()); //$NON-NLS-1$
+
+						processAnnotations(partition.project, partition.fileMap, partition.cus, budget, buildThread, reconciler);
+					}
+				}));
+			}
+
+			buildThread.runUntilDone(futures);
+
+			for (Future<?> future : futures) {
+				try {
+					if (!future.isCancelled())
+						future.get();
+				} catch (ExecutionException e) {
+					Activator.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Error processing annotations.", e.getCause())); //$NON-NLS-1$
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void processAnnotations(IJavaProject javaProject, Map<ICompilationUnit, BuildContext> fileMap, ChunkBudget budget, ComponentReconciler reconciler) {
+		ICompilationUnit[] cuArr = fileMap.keySet().toArray(new ICompilationUnit[fileMap.size()]);
+		processAnnotations(javaProject, fileMap, cuArr, budget, null, reconciler);
+	}
+
+	/**
+	 * Processes the given CUs in chunks, each with its own binding environment,
+	 * so that heap usage stays within budget regardless of the number of CUs.
+	 * Chunks are sized based on heap usage per CU observed so far, and the
+	 * budget's share left to them by chunks parsed concurrently.
+	 */
+	private void processAnnotations(IJavaProject javaProject, Map<ICompilationUnit, BuildContext> fileMap, ICompilationUnit[] cuArr, ChunkBudget budget, BuildThreadExecutor buildThread, ComponentReconciler reconciler) {
+		int maxChunkSize = Platform.getPreferencesService().getInt(Activator.PLUGIN_ID, Activator.PREF_CHUNK_SIZE, 0, null);
+		if (maxChunkSize <= 0)
+			maxChunkSize = Integer.MAX_VALUE;
+
+		int chunkSize = Math.min(maxChunkSize, INITIAL_CHUNK_SIZE);
+		long bytesPerCU = 0L;
+		for (int offset = 0; offset < cuArr.length;) {
+			int count = Math.min(chunkSize, cuArr.length - offset);
+			ICompilationUnit[] chunk = cuArr;
+			if (count < cuArr.length) {
+				chunk = new ICompilationUnit[count];
+				System.arraycopy(cuArr, offset, chunk, 0, count);
+			}
+
+			int concurrency = budget.enter();
+			long heapGrowth;
+			try {
+				heapGrowth = processAnnotations(javaProject, fileMap, chunk, buildThread, reconciler);
+			} finally {
+				concurrency = Math.max(concurrency, budget.exit());
+			}
+
+			offset += count;
+
+			long size;
+			if (heapGrowth > 0) {
+				// heap usage is sampled VM-wide; attribute growth evenly to all chunks parsed meanwhile
+				bytesPerCU = Math.max(1L, heapGrowth / ((long) count * concurrency));
+				size = budget.getShare() / bytesPerCU;
+			} else {
+				// garbage was collected along the way; we're likely well within budget
+				size = 2L * chunkSize;
+				if (bytesPerCU > 0L)
+					size = Math.min(size, budget.getShare() / bytesPerCU);
+			}
+
+			chunkSize = (int) Math.max(1L, Math.min(maxChunkSize, size));
+		}
+	}
+
+	/**
+	 * Parses the given CUs together, and returns the heap growth observed
+	 * while processing them (in bytes).
+	 */
+	private long processAnnotations(IJavaProject javaProject, Map<ICompilationUnit, BuildContext> fileMap, ICompilationUnit[] cuArr, BuildThreadExecutor buildThread, ComponentReconciler reconciler) {
 		ASTParser parser = ASTParser.newParser(AST.JLS4);
 		parser.setResolveBindings(true);
 		parser.setBindingsRecovery(true);
@@ -580,20 +1426,37 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 
 		parser.setIgnoreMethodBodies(state.getErrorLevel() == ValidationErrorLevel.none);
 
-		ICompilationUnit[] cuArr = fileMap.keySet().toArray(new ICompilationUnit[fileMap.size()]);
-		parser.createASTs(cuArr, new String[0], new AnnotationProcessor(projectContext, fileMap), null);
+		ASTRequestor requestor = new AnnotationProcessor(projectContext, fileMap, reconciler);
+		if (buildThread != null)
+			requestor = new BuildThreadRequestor(requestor, buildThread);
+
+		HeapSamplingRequestor sampler = new HeapSamplingRequestor(requestor);
+
+		long start = System.nanoTime();
+		parser.createASTs(cuArr, new String[0], sampler, null);
+		projectContext.getMetrics().addTime(BuildMetrics.Phase.createASTs, System.nanoTime() - start);
+		projectContext.getMetrics().addChunk(cuArr.length, sampler.peak);
+
+		if (debug.isDebugging())
+			debug.traceEvent("Processed %d compilation units in project %s; peak heap usage: %d MB.", cuArr.length, javaProject.getElementName(), sampler.peak / (1024 * 1024)); //$NON-NLS-1$
+
+		return sampler.peak - sampler.baseline;
+	}
+
+	/**
+	 * Returns metrics of the given project's last finished build (in this
+	 * session), if any.
+	 */
+	public static BuildMetrics getLastBuildMetrics(IProject project) {
+		return lastMetrics.get(project.getName());
 	}
 
 	public static boolean isManaged(IProject project) {
-		try {
-			if (project.getSessionProperty(PROP_STATE) != null)
-				return true;
+		if (Activator.getDefault().getStateCache().contains(project))
+			return true;
 
-			File stateFile = getStateFile(project);
-			return stateFile.canRead();
-		} catch (CoreException e) {
-			return false;
-		}
+		File stateFile = getStateFile(project);
+		return stateFile.canRead();
 	}
 
 	private static File getStateFile(IProject project) {
@@ -601,4 +1464,133 @@ public class DSAnnotationCompilationParticipant extends CompilationParticipant {
 		File stateFile = new File(workDir, STATE_FILENAME);
 		return stateFile;
 	}
+
+	private static ProjectStateJournal getJournal(IProject project) {
+		File workDir = project.getWorkingLocation(Activator.PLUGIN_ID).toFile();
+		return new ProjectStateJournal(new File(workDir, JOURNAL_FILENAME));
+	}
+
+	private static long getStateTimestamp(IProject project) {
+		return Math.max(getStateFile(project).lastModified(), getJournal(project).getFile().lastModified());
+	}
+
+	private long getChunkMemory() {
+		int megabytes = Platform.getPreferencesService().getInt(Activator.PLUGIN_ID, Activator.PREF_CHUNK_MEMORY, 0, null);
+		return megabytes > 0 ? megabytes * 1024L * 1024L : Runtime.getRuntime().maxMemory() / 4;
+	}
+
+	private static class Partition {
+
+		final IJavaProject project;
+
+		final Map<ICompilationUnit, BuildContext> fileMap;
+
+		final ICompilationUnit[] cus;
+
+		Partition(IJavaProject project, Map<ICompilationUnit, BuildContext> fileMap, ICompilationUnit[] cus) {
+			this.project = project;
+			this.fileMap = fileMap;
+			this.cus = cus;
+		}
+	}
+
+	/**
+	 * Heap budget shared by all chunks of CUs parsed concurrently (by different
+	 * partitions).
+	 */
+	private static class ChunkBudget {
+
+		private final long total;
+
+		private int active;
+
+		ChunkBudget(long total) {
+			this.total = total;
+		}
+
+		/**
+		 * Registers a chunk about to be parsed, and returns the number of chunks
+		 * being parsed (including this one).
+		 */
+		synchronized int enter() {
+			return ++active;
+		}
+
+		/**
+		 * Unregisters a parsed chunk, and returns the number of chunks that were
+		 * being parsed (including this one).
+		 */
+		synchronized int exit() {
+			return active--;
+		}
+
+		/**
+		 * Returns the share of the budget available to the next chunk, given
+		 * those currently being parsed.
+		 */
+		synchronized long getShare() {
+			return total / (active + 1);
+		}
+	}
+
+	private static class BuildThreadRequestor extends ASTRequestor {
+
+		private final ASTRequestor delegate;
+
+		private final BuildThreadExecutor buildThread;
+
+		BuildThreadRequestor(ASTRequestor delegate, BuildThreadExecutor buildThread) {
+			this.delegate = delegate;
+			this.buildThread = buildThread;
+		}
+
+		@Override
+		public void acceptAST(final ICompilationUnit source, final CompilationUnit ast) {
+			buildThread.syncExec(new Runnable() {
+				public void run() {
+					delegate.acceptAST(source, ast);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Samples heap usage whenever an AST is accepted, i.e., while its bindings
+	 * (and those of all preceding ASTs) are still reachable.
+	 */
+	private static class HeapSamplingRequestor extends ASTRequestor {
+
+		private final ASTRequestor delegate;
+
+		final long baseline;
+
+		long peak;
+
+		HeapSamplingRequestor(ASTRequestor delegate) {
+			this.delegate = delegate;
+			baseline = peak = getUsedHeap();
+		}
+
+		@Override
+		public void acceptAST(ICompilationUnit source, CompilationUnit ast) {
+			peak = Math.max(peak, getUsedHeap());
+			delegate.acceptAST(source, ast);
+		}
+
+		private static long getUsedHeap() {
+			Runtime runtime = Runtime.getRuntime();
+			return runtime.totalMemory() - runtime.freeMemory();
+		}
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, String.format("DS Annotation Processor-%d", count.incrementAndGet())); //$NON-NLS-1$
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
 }
@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IProjectDescription;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceDescription;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.pde.internal.core.natures.PDE;
+
+/**
+ * Headless application that generates component descriptors (and updates
+ * bundle manifests) for a set of bundle directories, without compiling them.
+ *
+ * <p>
+ * Usage: <code>-application ca.ecliptical.pde.ds.generator [-classpath
+ * &lt;entries&gt;] &lt;bundle directory&gt;...</code>
+ * </p>
+ *
+ * <p>
+ * Each bundle directory is temporarily imported into the workspace, using
+ * its own Eclipse project metadata if present, or a default source folder
+ * otherwise; classpath entries (separated by the platform's path separator)
+ * are added to every bundle's classpath. All bundles are then processed
+ * together, in parallel, by the same annotation processor used by the
+ * builder. Afterwards, the projects are removed from the workspace and their
+ * metadata files are restored, leaving only the generated files and
+ * manifest/build.properties updates behind.
+ * </p>
+ */
+@SuppressWarnings("restriction")
+public class DSAnnotationGenerator implements IApplication {
+
+	private static final String ARG_CLASSPATH = "-classpath"; //$NON-NLS-1$
+
+	private static final String DEFAULT_SOURCE_FOLDER = "src"; //$NON-NLS-1$
+
+	private static final String JRE_CONTAINER = "org.eclipse.jdt.launching.JRE_CONTAINER"; //$NON-NLS-1$
+
+	private static final String REQUIRED_PLUGINS_CONTAINER = "org.eclipse.pde.core.requiredPlugins"; //$NON-NLS-1$
+
+	// project metadata files that may be modified by importing and processing a bundle
+	private static final String[] METADATA_FILES = { IProjectDescription.DESCRIPTION_FILE_NAME, ".classpath" }; //$NON-NLS-1$
+
+	private static final Integer EXIT_ERROR = Integer.valueOf(1);
+
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		final ArrayList<IPath> classpath = new ArrayList<IPath>();
+		final ArrayList<File> bundleDirs = new ArrayList<File>();
+		for (int i = 0; args != null && i < args.length; ++i) {
+			if (ARG_CLASSPATH.equals(args[i]) && i + 1 < args.length) {
+				for (String entry : args[++i].split(File.pathSeparator)) {
+					if (entry.length() > 0)
+						classpath.add(new Path(new File(entry).getAbsolutePath()));
+				}
+			} else {
+				File dir = new File(args[i]).getCanonicalFile();
+				if (!dir.isDirectory()) {
+					System.err.println(String.format("Not a directory: %s", dir)); //$NON-NLS-1$
+					return EXIT_ERROR;
+				}
+
+				bundleDirs.add(dir);
+			}
+		}
+
+		if (bundleDirs.isEmpty()) {
+			System.err.println("Usage: -application ca.ecliptical.pde.ds.generator [-classpath <entries>] <bundle directory>..."); //$NON-NLS-1$
+			return EXIT_ERROR;
+		}
+
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+
+		// we don't want to compile anything
+		IWorkspaceDescription description = workspace.getDescription();
+		boolean autoBuilding = description.isAutoBuilding();
+		if (autoBuilding) {
+			description.setAutoBuilding(false);
+			workspace.setDescription(description);
+		}
+
+		final LinkedHashMap<File, Map<String, byte[]>> metadata = new LinkedHashMap<File, Map<String, byte[]>>();
+		final ArrayList<IProject> projects = new ArrayList<IProject>(bundleDirs.size());
+		try {
+			workspace.run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor monitor) throws CoreException {
+					ArrayList<IJavaProject> javaProjects = new ArrayList<IJavaProject>(bundleDirs.size());
+					for (File dir : bundleDirs) {
+						metadata.put(dir, readMetadata(dir));
+						IProject project = importBundle(dir, classpath, monitor);
+						projects.add(project);
+						javaProjects.add(JavaCore.create(project));
+					}
+
+					new DSAnnotationCompilationParticipant().generate(javaProjects);
+
+					for (IProject project : projects) {
+						BuildMetrics metrics = DSAnnotationCompilationParticipant.getLastBuildMetrics(project);
+						if (metrics == null)
+							continue;
+
+						System.out.println(String.format("%s: %d components generated, %d up to date, %d files deleted, %d problems.", //$NON-NLS-1$
+								project.getLocation().toOSString(),
+								metrics.getCount(BuildMetrics.Counter.componentsGenerated),
+								metrics.getCount(BuildMetrics.Counter.componentsUpToDate),
+								metrics.getCount(BuildMetrics.Counter.filesDeleted),
+								metrics.getCount(BuildMetrics.Counter.problemsReported)));
+					}
+				}
+			}, workspace.getRoot(), IWorkspace.AVOID_UPDATE, new NullProgressMonitor());
+		} catch (CoreException e) {
+			Activator.log(e);
+			System.err.println(e.getStatus().getMessage());
+			return EXIT_ERROR;
+		} finally {
+			for (IProject project : projects) {
+				try {
+					project.delete(IResource.NEVER_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+				} catch (CoreException e) {
+					Activator.log(e);
+				}
+			}
+
+			for (Map.Entry<File, Map<String, byte[]>> entry : metadata.entrySet()) {
+				restoreMetadata(entry.getKey(), entry.getValue());
+			}
+
+			// leave the workspace as we found it
+			if (autoBuilding) {
+				try {
+					description = workspace.getDescription();
+					description.setAutoBuilding(true);
+					workspace.setDescription(description);
+				} catch (CoreException e) {
+					Activator.log(e);
+				}
+			}
+		}
+
+		return EXIT_OK;
+	}
+
+	public void stop() {
+		// nothing to do
+	}
+
+	private static IProject importBundle(File dir, List<IPath> classpath, IProgressMonitor monitor) throws CoreException {
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		IPath location = new Path(dir.getAbsolutePath());
+		File descriptionFile = new File(dir, IProjectDescription.DESCRIPTION_FILE_NAME);
+		IProjectDescription description = descriptionFile.isFile()
+				? workspace.loadProjectDescription(new Path(descriptionFile.getAbsolutePath()))
+				: workspace.newProjectDescription(dir.getName());
+
+		// projects located directly in the workspace must use the default location
+		description.setLocation(location.removeLastSegments(1).equals(workspace.getRoot().getLocation()) ? null : location);
+
+		IProject project = workspace.getRoot().getProject(description.getName());
+		if (project.exists())
+			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, String.format("Project %s already exists in the workspace.", project.getName()))); //$NON-NLS-1$
+
+		ArrayList<String> natures = new ArrayList<String>(Arrays.asList(description.getNatureIds()));
+		boolean hasJavaNature = natures.contains(JavaCore.NATURE_ID);
+		if (!hasJavaNature)
+			natures.add(JavaCore.NATURE_ID);
+
+		if (!natures.contains(PDE.PLUGIN_NATURE))
+			natures.add(PDE.PLUGIN_NATURE);
+
+		description.setNatureIds(natures.toArray(new String[natures.size()]));
+
+		project.create(description, monitor);
+		project.open(monitor);
+
+		IJavaProject javaProject = JavaCore.create(project);
+		ArrayList<IClasspathEntry> entries = new ArrayList<IClasspathEntry>();
+		if (hasJavaNature && new File(dir, ".classpath").isFile()) { //$NON-NLS-1$
+			entries.addAll(Arrays.asList(javaProject.getRawClasspath()));
+		} else {
+			IPath sourcePath = new File(dir, DEFAULT_SOURCE_FOLDER).isDirectory() ? project.getFolder(DEFAULT_SOURCE_FOLDER).getFullPath() : project.getFullPath();
+			entries.add(JavaCore.newSourceEntry(sourcePath));
+			entries.add(JavaCore.newContainerEntry(new Path(JRE_CONTAINER)));
+			entries.add(JavaCore.newContainerEntry(new Path(REQUIRED_PLUGINS_CONTAINER)));
+		}
+
+		for (IPath entry : classpath) {
+			entries.add(JavaCore.newLibraryEntry(entry, null, null));
+		}
+
+		javaProject.setRawClasspath(entries.toArray(new IClasspathEntry[entries.size()]), monitor);
+		return project;
+	}
+
+	private static Map<String, byte[]> readMetadata(File dir) throws CoreException {
+		LinkedHashMap<String, byte[]> contents = new LinkedHashMap<String, byte[]>(METADATA_FILES.length);
+		for (String name : METADATA_FILES) {
+			File file = new File(dir, name);
+			if (!file.isFile()) {
+				contents.put(name, null);
+				continue;
+			}
+
+			try {
+				byte[] bytes = new byte[(int) file.length()];
+				InputStream in = new FileInputStream(file);
+				try {
+					int offset = 0;
+					int count;
+					while (offset < bytes.length && (count = in.read(bytes, offset, bytes.length - offset)) != -1) {
+						offset += count;
+					}
+				} finally {
+					in.close();
+				}
+
+				contents.put(name, bytes);
+			} catch (IOException e) {
+				throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, String.format("Error reading %s.", file), e)); //$NON-NLS-1$
+			}
+		}
+
+		return contents;
+	}
+
+	private static void restoreMetadata(File dir, Map<String, byte[]> contents) {
+		for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+			File file = new File(dir, entry.getKey());
+			if (entry.getValue() == null) {
+				file.delete();
+				continue;
+			}
+
+			try {
+				OutputStream out = new FileOutputStream(file);
+				try {
+					out.write(entry.getValue());
+				} finally {
+					out.close();
+				}
+			} catch (IOException e) {
+				Activator.log(new Status(IStatus.ERROR, Activator.PLUGIN_ID, String.format("Error restoring %s.", file), e)); //$NON-NLS-1$
+			}
+		}
+	}
+}
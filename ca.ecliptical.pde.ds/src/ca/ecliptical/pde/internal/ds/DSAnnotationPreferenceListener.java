@@ -37,10 +37,24 @@ public class DSAnnotationPreferenceListener implements IPreferenceChangeListener
 	}
 
 	public void preferenceChange(final PreferenceChangeEvent event) {
+		// tuning preferences don't affect generated output
+		if (Activator.PREF_PARALLELISM.equals(event.getKey())
+				|| Activator.PREF_SPLIT_THRESHOLD.equals(event.getKey())
+				|| Activator.PREF_CHUNK_SIZE.equals(event.getKey())
+				|| Activator.PREF_CHUNK_MEMORY.equals(event.getKey())
+				|| Activator.PREF_STATE_CACHE_SIZE.equals(event.getKey())
+				|| Activator.PREF_BUILD_METRICS.equals(event.getKey()))
+			return;
+
 		final IWorkspace ws = ResourcesPlugin.getWorkspace();
 		if (!ws.isAutoBuilding() && !Constants.PREF_CLASSPATH.equals(event.getKey()))
 			return;
 
+		// these only require generated files or problem markers to be updated, not a rebuild
+		final boolean updateOnly = Activator.PREF_PATH.equals(event.getKey())
+				|| Activator.PREF_VALIDATION_ERROR_LEVEL.equals(event.getKey())
+				|| Activator.PREF_MISSING_UNBIND_METHOD_ERROR_LEVEL.equals(event.getKey());
+
 		WorkspaceJob job = new WorkspaceJob(Messages.DSAnnotationPreferenceListener_jobName) {
 			@Override
 			public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException {
@@ -56,9 +70,12 @@ public class DSAnnotationPreferenceListener implements IPreferenceChangeListener
 					monitor.beginTask(Messages.DSAnnotationPreferenceListener_taskName, managedProjects.size());
 
 				try {
+					DSAnnotationCompilationParticipant participant = new DSAnnotationCompilationParticipant();
 					for (IProject project : managedProjects) {
 						if (Constants.PREF_CLASSPATH.equals(event.getKey())) {
 							ProjectClasspathPreferenceChangeListener.updateClasspathContainer(JavaCore.create(project), new SubProgressMonitor(monitor, 1));
+						} else if (updateOnly) {
+							participant.update(JavaCore.create(project), new SubProgressMonitor(monitor, 1));
 						} else {
 							project.build(IncrementalProjectBuilder.FULL_BUILD, new SubProgressMonitor(monitor, 1));
 						}
@@ -72,6 +89,10 @@ public class DSAnnotationPreferenceListener implements IPreferenceChangeListener
 			}
 		};
 
+		// updates run outside of the builder, so keep builds (and other updates) out
+		if (updateOnly)
+			job.setRule(ws.getRoot());
+
 		PlatformUI.getWorkbench().getProgressService().showInDialog(null, job);
 		job.schedule();
 	}
@@ -14,6 +14,14 @@ import org.eclipse.jdt.core.compiler.CategorizedProblem;
 
 public class DSAnnotationProblem extends CategorizedProblem {
 
+	public static final String MARKER_TYPE = "ca.ecliptical.pde.ds.problem"; //$NON-NLS-1$
+
+	/**
+	 * Marker attribute holding the key of the preference that determines the
+	 * problem's severity.
+	 */
+	public static final String MARKER_ATTRIBUTE_LEVEL_KEY = "levelKey"; //$NON-NLS-1$
+
 	private final boolean error;
 
 	private final String message;
@@ -28,6 +36,8 @@ public class DSAnnotationProblem extends CategorizedProblem {
 
 	private int sourceLineNumber;
 
+	private String levelKey;
+
 	public DSAnnotationProblem(boolean error, String message, String... args) {
 		this.error = error;
 		this.message = message;
@@ -53,7 +63,25 @@ public class DSAnnotationProblem extends CategorizedProblem {
 
 	@Override
 	public String getMarkerType() {
-		return "ca.ecliptical.pde.ds.problem"; //$NON-NLS-1$
+		return MARKER_TYPE;
+	}
+
+	@Override
+	public String[] getExtraMarkerAttributeNames() {
+		return levelKey == null ? super.getExtraMarkerAttributeNames() : new String[] { MARKER_ATTRIBUTE_LEVEL_KEY };
+	}
+
+	@Override
+	public Object[] getExtraMarkerAttributeValues() {
+		return levelKey == null ? super.getExtraMarkerAttributeValues() : new Object[] { levelKey };
+	}
+
+	public String getLevelKey() {
+		return levelKey;
+	}
+
+	public void setLevelKey(String levelKey) {
+		this.levelKey = levelKey;
 	}
 
 	public char[] getOriginatingFileName() {
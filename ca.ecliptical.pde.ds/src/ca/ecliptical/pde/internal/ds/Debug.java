@@ -56,12 +56,53 @@ public class Debug {
 
 	public void trace(String message) {
 		if (trace != null)
-			trace.trace(option, message);
+			TraceBuffer.record(this, message, 0, null, null, null, null);
+	}
+
+	/**
+	 * Records a trace event with the given message format and argument.
+	 *
+	 * <p>
+	 * Events are buffered per thread and written out asynchronously; the
+	 * message is only formatted (as in
+	 * {@link String#format(String, Object...)}) when the event is written out,
+	 * so arguments must not change in the meantime.
+	 * </p>
+	 */
+	public void traceEvent(String format, Object arg) {
+		if (trace != null)
+			TraceBuffer.record(this, format, 1, arg, null, null, null);
+	}
+
+	public void traceEvent(String format, Object arg0, Object arg1) {
+		if (trace != null)
+			TraceBuffer.record(this, format, 2, arg0, arg1, null, null);
+	}
+
+	public void traceEvent(String format, Object arg0, Object arg1, Object arg2) {
+		if (trace != null)
+			TraceBuffer.record(this, format, 3, arg0, arg1, arg2, null);
+	}
+
+	public void traceEvent(String format, Object... args) {
+		if (trace != null)
+			TraceBuffer.record(this, format, args.length, null, null, null, args);
 	}
 
 	public void trace(String message, Throwable error) {
+		if (trace != null) {
+			// keep buffered events in order
+			TraceBuffer.flush();
+			trace.trace(option, message, error);
+		}
+	}
+
+	/**
+	 * Writes out a message that has already been formatted.
+	 */
+	void write(String message) {
 		if (trace != null)
-			trace.trace(message, message, error);
+			trace.trace(option, message);
 	}
 
 	public void traceDumpStack() {
@@ -114,6 +114,8 @@ public class Messages extends NLS {
 
 	public static String DSAnnotationCompilationParticipant_buildpathProblemMarker_message;
 
+	public static String DSAnnotationCompilationParticipant_updateDependentsJobName;
+
 	public static String DSAnnotationPreferenceListener_jobName;
 
 	public static String DSAnnotationPreferenceListener_taskName;
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.IPackageBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.Modifier;
+
+/**
+ * Index of declared methods of component classes and their superclasses, by
+ * name and number of parameters.
+ *
+ * <p>
+ * Built lazily, and shared by all lookups of bind-related and life cycle
+ * methods performed while processing one batch of ASTs. Bindings from
+ * different batches must not be mixed, so each batch gets its own index.
+ * </p>
+ */
+public class MethodIndex {
+
+	private static final Method[] NO_METHODS = new Method[0];
+
+	private final Map<String, Type> types = new HashMap<String, Type>();
+
+	public Type getType(ITypeBinding binding) {
+		String key = binding.getKey();
+		Type type = types.get(key);
+		if (type == null) {
+			type = new Type(binding);
+			types.put(key, type);
+		}
+
+		return type;
+	}
+
+	public class Type {
+
+		private final ITypeBinding binding;
+
+		private final Map<String, Method[]> methodsByName = new HashMap<String, Method[]>();
+
+		private final Map<String, Method[]> methodsByNameAndArity = new HashMap<String, Method[]>();
+
+		private Type superclass;
+
+		private boolean superclassResolved;
+
+		Type(ITypeBinding binding) {
+			this.binding = binding;
+
+			HashMap<String, List<Method>> byName = new HashMap<String, List<Method>>();
+			HashMap<String, List<Method>> byNameAndArity = new HashMap<String, List<Method>>();
+			for (IMethodBinding methodBinding : binding.getDeclaredMethods()) {
+				Method method = new Method(methodBinding);
+				add(byName, methodBinding.getName(), method);
+				add(byNameAndArity, key(methodBinding.getName(), method.getParameterCount()), method);
+			}
+
+			toArrays(byName, methodsByName);
+			toArrays(byNameAndArity, methodsByNameAndArity);
+		}
+
+		public ITypeBinding getBinding() {
+			return binding;
+		}
+
+		public Type getSuperclass() {
+			if (!superclassResolved) {
+				ITypeBinding superclassBinding = binding.getSuperclass();
+				superclass = superclassBinding == null ? null : getType(superclassBinding);
+				superclassResolved = true;
+			}
+
+			return superclass;
+		}
+
+		public Method[] getMethods(String name) {
+			Method[] methods = methodsByName.get(name);
+			return methods == null ? NO_METHODS : methods;
+		}
+
+		public Method[] getMethods(String name, int arity) {
+			Method[] methods = methodsByNameAndArity.get(key(name, arity));
+			return methods == null ? NO_METHODS : methods;
+		}
+
+		/**
+		 * Determines whether the given method, declared by this type, is
+		 * visible to the given subclass.
+		 */
+		public boolean isVisible(Method method, Type subclass) {
+			if (subclass == this || method.isPublic() || method.isProtected())
+				return true;
+
+			if (method.isPrivate())
+				return false;
+
+			IPackageBinding pkg = binding.getPackage();
+			return pkg != null && pkg.isEqualTo(subclass.binding.getPackage());
+		}
+	}
+
+	public static class Method {
+
+		private final IMethodBinding binding;
+
+		private final int modifiers;
+
+		private final boolean isVoid;
+
+		private final ITypeBinding[] parameterTypes;
+
+		private final String[] parameterTypeNames;
+
+		Method(IMethodBinding binding) {
+			this.binding = binding;
+			modifiers = binding.getModifiers();
+			isVoid = Void.TYPE.getName().equals(binding.getReturnType().getName());
+			parameterTypes = binding.getParameterTypes();
+			parameterTypeNames = new String[parameterTypes.length];
+			for (int i = 0; i < parameterTypes.length; ++i) {
+				parameterTypeNames[i] = parameterTypes[i].getErasure().getQualifiedName();
+			}
+		}
+
+		public IMethodBinding getBinding() {
+			return binding;
+		}
+
+		public boolean isVoid() {
+			return isVoid;
+		}
+
+		public boolean isPublic() {
+			return Modifier.isPublic(modifiers);
+		}
+
+		public boolean isProtected() {
+			return Modifier.isProtected(modifiers);
+		}
+
+		public boolean isPrivate() {
+			return Modifier.isPrivate(modifiers);
+		}
+
+		public int getParameterCount() {
+			return parameterTypes.length;
+		}
+
+		public ITypeBinding getParameterType(int index) {
+			return parameterTypes[index];
+		}
+
+		/**
+		 * Returns the qualified name of the given parameter type's erasure.
+		 */
+		public String getParameterTypeName(int index) {
+			return parameterTypeNames[index];
+		}
+	}
+
+	private static String key(String name, int arity) {
+		return name + '/' + arity;
+	}
+
+	private static void add(Map<String, List<Method>> map, String key, Method method) {
+		List<Method> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<Method>(1);
+			map.put(key, list);
+		}
+
+		list.add(method);
+	}
+
+	private static void toArrays(Map<String, List<Method>> source, Map<String, Method[]> target) {
+		for (Map.Entry<String, List<Method>> entry : source.entrySet()) {
+			target.put(entry.getKey(), entry.getValue().toArray(new Method[entry.getValue().size()]));
+		}
+	}
+}
@@ -0,0 +1,398 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.eclipse.core.filebuffers.FileBuffers;
+import org.eclipse.core.filebuffers.ITextFileBuffer;
+import org.eclipse.core.filebuffers.ITextFileBufferManager;
+import org.eclipse.core.filebuffers.LocationKind;
+import org.eclipse.core.resources.ICommand;
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IProjectDescription;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentRewriteSession;
+import org.eclipse.jface.text.DocumentRewriteSessionType;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.link.LinkedModeModel;
+import org.eclipse.text.edits.MalformedTreeException;
+import org.eclipse.text.edits.ReplaceEdit;
+import org.eclipse.text.edits.TextEdit;
+
+/**
+ * Stages changes to generated DS files during a build, and applies them all
+ * at once in a single workspace operation when the build finishes.
+ *
+ * <p>
+ * Files open in an editor are updated through their file buffers, in a single
+ * round trip to the buffers' synchronization context (typically the UI
+ * thread); all others are written directly.
+ * </p>
+ *
+ * <p>
+ * Changes may be staged concurrently (e.g., by component reconciler threads),
+ * but must all be staged before they're applied.
+ * </p>
+ */
+public class ModelFileWriter {
+
+	private static final String DS_BUILDER = "org.eclipse.pde.ds.core.builder"; //$NON-NLS-1$
+
+	private static final String DEFAULT_CHARSET = "UTF-8"; //$NON-NLS-1$
+
+	private static final Debug debug = AnnotationProcessor.debug;
+
+	private final IProject project;
+
+	private final ProjectState state;
+
+	// target -> source
+	private final Map<IFile, IFile> moves = new LinkedHashMap<IFile, IFile>();
+
+	private final Map<IFile, String> writes = new LinkedHashMap<IFile, String>();
+
+	// fingerprints to record once files are written
+	private final Map<IFile, Fingerprint> fingerprints = new HashMap<IFile, Fingerprint>();
+
+	public ModelFileWriter(IProject project, ProjectState state) {
+		this.project = project;
+		this.state = state;
+	}
+
+	public synchronized void move(IFile source, IFile target) {
+		moves.put(target, source);
+	}
+
+	public synchronized void write(IFile file, String content) {
+		writes.put(file, content);
+	}
+
+	/**
+	 * Records the fingerprint of the descriptor the given file was generated
+	 * from, along with the file's modification stamp after all changes have
+	 * been applied.
+	 */
+	public synchronized void setFingerprint(IFile file, String className, long fingerprint) {
+		fingerprints.put(file, new Fingerprint(className, fingerprint));
+	}
+
+	/**
+	 * Returns the given file's content, taking into account any changes staged
+	 * so far, or an empty string if the file doesn't exist.
+	 */
+	public String read(IFile file) throws CoreException {
+		IFile source;
+		synchronized (this) {
+			String content = writes.get(file);
+			if (content != null)
+				return content;
+
+			source = moves.get(file);
+		}
+
+		if (source != null)
+			file = source;
+
+		// prefer open buffer's (possibly unsaved) content
+		ITextFileBuffer buffer = FileBuffers.getTextFileBufferManager().getTextFileBuffer(file.getFullPath(), LocationKind.IFILE);
+		if (buffer != null)
+			return buffer.getDocument().get();
+
+		if (!file.exists())
+			return ""; //$NON-NLS-1$
+
+		InputStream in = file.getContents(true);
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, file.getCharset()));
+			StringBuilder buf = new StringBuilder();
+			char[] chars = new char[4096];
+			int count;
+			while ((count = reader.read(chars)) != -1) {
+				buf.append(chars, 0, count);
+			}
+
+			return buf.toString();
+		} catch (IOException e) {
+			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, String.format("Error reading file '%s'.", file.getFullPath()), e)); //$NON-NLS-1$
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	public synchronized boolean isEmpty() {
+		return moves.isEmpty() && writes.isEmpty() && fingerprints.isEmpty();
+	}
+
+	/**
+	 * Applies all staged changes in a single workspace operation.
+	 */
+	public void flush(IProgressMonitor monitor) throws CoreException {
+		if (isEmpty())
+			return;
+
+		ResourcesPlugin.getWorkspace().run(new IWorkspaceRunnable() {
+			public void run(IProgressMonitor monitor) throws CoreException {
+				apply();
+			}
+		}, project, IWorkspace.AVOID_UPDATE, monitor);
+	}
+
+	private void apply() throws CoreException {
+		ArrayList<IStatus> statuses = new ArrayList<IStatus>(2);
+		ArrayList<IFile> failed = new ArrayList<IFile>(2);
+
+		// projects with generated files must be set up to build them
+		boolean builderRequired = !moves.isEmpty() || !writes.isEmpty();
+
+		for (Map.Entry<IFile, IFile> entry : moves.entrySet()) {
+			IFile target = entry.getKey();
+			IFile source = entry.getValue();
+			if (!source.exists() || target.exists())
+				continue;
+
+			try {
+				ensureParentExists(target);
+				source.move(target.getFullPath(), true, true, null);
+			} catch (CoreException e) {
+				statuses.add(new Status(IStatus.WARNING, Activator.PLUGIN_ID, String.format("Unable to move model file from '%s' to '%s'.", source.getFullPath(), target.getFullPath()), e)); //$NON-NLS-1$
+			}
+		}
+
+		ITextFileBufferManager bufferManager = FileBuffers.getTextFileBufferManager();
+		HashMap<ITextFileBuffer, String> bufferWrites = new HashMap<ITextFileBuffer, String>();
+		try {
+			for (Map.Entry<IFile, String> entry : writes.entrySet()) {
+				IFile file = entry.getKey();
+
+				if (debug.isDebugging())
+					debug.traceEvent("Saving model: %s", file.getFullPath()); //$NON-NLS-1$
+
+				try {
+					if (bufferManager.getTextFileBuffer(file.getFullPath(), LocationKind.IFILE) == null) {
+						writeFile(file, entry.getValue());
+					} else {
+						// file is open elsewhere (e.g., in an editor); go through its buffer
+						bufferManager.connect(file.getFullPath(), LocationKind.IFILE, null);
+						bufferWrites.put(bufferManager.getTextFileBuffer(file.getFullPath(), LocationKind.IFILE), entry.getValue());
+					}
+				} catch (CoreException e) {
+					statuses.add(e.getStatus());
+					failed.add(file);
+				}
+			}
+
+			if (!bufferWrites.isEmpty())
+				writeBuffers(bufferManager, bufferWrites, statuses, failed);
+		} finally {
+			for (ITextFileBuffer buffer : bufferWrites.keySet()) {
+				bufferManager.disconnect(buffer.getLocation(), LocationKind.IFILE, null);
+			}
+		}
+
+		if (builderRequired) {
+			try {
+				ensureDSProject();
+			} catch (CoreException e) {
+				statuses.add(e.getStatus());
+			}
+		}
+
+		for (Map.Entry<IFile, Fingerprint> entry : fingerprints.entrySet()) {
+			IFile file = entry.getKey();
+			if (!failed.contains(file) && file.exists())
+				state.setFingerprint(entry.getValue().className, entry.getValue().value, file.getModificationStamp());
+		}
+
+		moves.clear();
+		writes.clear();
+		fingerprints.clear();
+
+		if (!statuses.isEmpty())
+			Activator.log(new MultiStatus(Activator.PLUGIN_ID, 0, statuses.toArray(new IStatus[statuses.size()]), "Error writing generated files.", null)); //$NON-NLS-1$
+	}
+
+	private void writeFile(IFile file, String content) throws CoreException {
+		String charset = file.exists() ? file.getCharset() : DEFAULT_CHARSET;
+		byte[] bytes;
+		try {
+			bytes = content.getBytes(charset);
+		} catch (UnsupportedEncodingException e) {
+			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, String.format("Unsupported encoding '%s' of file '%s'.", charset, file.getFullPath()), e)); //$NON-NLS-1$
+		}
+
+		if (file.exists()) {
+			file.setContents(new ByteArrayInputStream(bytes), true, true, null);
+		} else {
+			ensureParentExists(file);
+			file.create(new ByteArrayInputStream(bytes), true, null);
+		}
+	}
+
+	private void writeBuffers(ITextFileBufferManager bufferManager, final Map<ITextFileBuffer, String> bufferWrites, Collection<IStatus> statuses, Collection<IFile> failed) {
+		final HashMap<ITextFileBuffer, CoreException> errors = new HashMap<ITextFileBuffer, CoreException>();
+		Runnable edits = new Runnable() {
+			public void run() {
+				for (Map.Entry<ITextFileBuffer, String> entry : bufferWrites.entrySet()) {
+					IDocument document = entry.getKey().getDocument();
+					try {
+						performEdit(document, new ReplaceEdit(0, document.getLength(), entry.getValue()));
+					} catch (CoreException e) {
+						errors.put(entry.getKey(), e);
+					}
+				}
+			}
+		};
+
+		boolean syncRequested = false;
+		for (ITextFileBuffer buffer : bufferWrites.keySet()) {
+			if (buffer.isSynchronizationContextRequested()) {
+				syncRequested = true;
+				break;
+			}
+		}
+
+		if (syncRequested) {
+			// all edits in one round trip
+			final CountDownLatch latch = new CountDownLatch(1);
+			final Runnable task = edits;
+			bufferManager.execute(new Runnable() {
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						latch.countDown();
+					}
+				}
+			});
+
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				if (debug.isDebugging())
+					debug.trace("Interrupted while waiting for edits to complete on display thread.", e); //$NON-NLS-1$
+			}
+		} else {
+			edits.run();
+		}
+
+		for (ITextFileBuffer buffer : bufferWrites.keySet()) {
+			IFile file = ResourcesPlugin.getWorkspace().getRoot().getFile(buffer.getLocation());
+			CoreException error = errors.get(buffer);
+			if (error == null) {
+				try {
+					buffer.commit(null, true);
+					continue;
+				} catch (CoreException e) {
+					error = e;
+				}
+			}
+
+			statuses.add(error.getStatus());
+			failed.add(file);
+		}
+	}
+
+	private static void performEdit(IDocument document, TextEdit edit) throws CoreException {
+		DocumentRewriteSession session = null;
+		try {
+			if (document instanceof IDocumentExtension4) {
+				session = ((IDocumentExtension4) document).startRewriteSession(DocumentRewriteSessionType.UNRESTRICTED);
+			}
+
+			LinkedModeModel.closeAllModels(document);
+			edit.apply(document);
+		} catch (MalformedTreeException e) {
+			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Error applying changes to component model.", e)); //$NON-NLS-1$
+		} catch (BadLocationException e) {
+			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Error applying changes to component model.", e)); //$NON-NLS-1$
+		} finally {
+			if (session != null) {
+				((IDocumentExtension4) document).stopRewriteSession(session);
+			}
+		}
+	}
+
+	private void ensureParentExists(IFile file) throws CoreException {
+		IContainer parent = file.getParent();
+		if (parent.getType() == IResource.FOLDER)
+			ensureExists((IFolder) parent);
+	}
+
+	private void ensureExists(IFolder folder) throws CoreException {
+		if (folder.exists())
+			return;
+
+		IContainer parent = folder.getParent();
+		if (parent != null && parent.getType() == IResource.FOLDER)
+			ensureExists((IFolder) parent);
+
+		folder.create(true, true, null);
+	}
+
+	private void ensureDSProject() throws CoreException {
+		IProjectDescription description = project.getDescription();
+		ICommand[] commands = description.getBuildSpec();
+
+		for (ICommand command : commands) {
+			if (DS_BUILDER.equals(command.getBuilderName()))
+				return;
+		}
+
+		ICommand[] newCommands = new ICommand[commands.length + 1];
+		System.arraycopy(commands, 0, newCommands, 0, commands.length);
+		ICommand command = description.newCommand();
+		command.setBuilderName(DS_BUILDER);
+		newCommands[newCommands.length - 1] = command;
+		description.setBuildSpec(newCommands);
+		project.setDescription(description, null);
+	}
+
+	private static class Fingerprint {
+
+		final String className;
+
+		final long value;
+
+		Fingerprint(String className, long value) {
+			this.className = className;
+			this.value = value;
+		}
+	}
+}
@@ -11,7 +11,12 @@
 package ca.ecliptical.pde.internal.ds;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
 
 public class ProjectContext {
 
@@ -23,20 +28,34 @@ public class ProjectContext {
 	// CUs not processed in this run
 	private final Collection<String> unprocessed;
 
-	private final ProjectState oldState;
+	// state modification count at the start of this run
+	private final int modCount;
+
+	// generated file changes staged until the end of the build
+	private final ModelFileWriter writer;
+
+	private final BuildMetrics metrics;
+
+	// problems found in CUs processed without a build context, to be reported as markers at the end of the run
+	private final Map<IFile, Collection<DSAnnotationProblem>> problems = new HashMap<IFile, Collection<DSAnnotationProblem>>();
 
-	public ProjectContext(ProjectState state) {
+	// other projects with components that depend on types changed in this run
+	private final Collection<IProject> dependentProjects = new HashSet<IProject>();
+
+	public ProjectContext(IProject project, ProjectState state) {
 		this.state = state;
+		writer = new ModelFileWriter(project, state);
+		metrics = new BuildMetrics(project.getName());
 
 		// track unprocessed CUs from the start
 		unprocessed = new HashSet<String>(state.getCompilationUnits());
 
-		// clone existing state so later we can determine if changed
-		oldState = state.clone();
+		// remember modification count so later we can determine if changed
+		modCount = state.getModificationCount();
 	}
 
 	public boolean isChanged() {
-		return !oldState.equals(state);
+		return state.getModificationCount() != modCount;
 	}
 
 	public ProjectState getState() {
@@ -50,4 +69,20 @@ public class ProjectContext {
 	public Collection<String> getUnprocessed() {
 		return unprocessed;
 	}
+
+	public ModelFileWriter getWriter() {
+		return writer;
+	}
+
+	public BuildMetrics getMetrics() {
+		return metrics;
+	}
+
+	public Map<IFile, Collection<DSAnnotationProblem>> getProblems() {
+		return problems;
+	}
+
+	public Collection<IProject> getDependentProjects() {
+		return dependentProjects;
+	}
 }
\ No newline at end of file
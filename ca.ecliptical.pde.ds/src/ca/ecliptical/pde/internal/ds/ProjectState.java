@@ -10,14 +10,27 @@
  *******************************************************************************/
 package ca.ecliptical.pde.internal.ds;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.jdt.core.JavaCore;
 
@@ -26,7 +39,38 @@ public class ProjectState implements Serializable, Cloneable {
 	private static final long serialVersionUID = 8616641822921441882L;
 
 	// current state file format version
-	public static final int FORMAT_VERSION = 1;
+	// 1: adds types and files
+	// 2: binary encoding with string table (1 only differs in encoding)
+	// 3: dependencies are recorded as declaring files rather than types
+	public static final int FORMAT_VERSION = 3;
+
+	// binary state file signature ("DSAS")
+	private static final int MAGIC = 0x44534153;
+
+	private static final byte SECTION_END = 0;
+
+	private static final byte SECTION_SETTINGS = 1;
+
+	private static final byte SECTION_MAPPINGS = 2;
+
+	private static final byte SECTION_TYPES = 3;
+
+	private static final byte SECTION_FILES = 4;
+
+	private static final byte SECTION_FINGERPRINTS = 5;
+
+	private static final byte SECTION_GENERATION = 6;
+
+	private static final byte SECTION_COMPONENTS = 7;
+
+	private static final byte SECTION_DEPENDENCIES = 8;
+
+	// approximate heap overhead of an object and of a hash table entry, used for size estimates
+	private static final int OBJECT_SIZE = 40;
+
+	private static final int ENTRY_SIZE = 32;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
 
 	// package-prefixed CU name (w/out file extension) to plugin-root-relative (portable) paths of generated DS files (deprecated)
 	// note: we keep it non-null in case user downgrades to older plugin version where old logic depends on that
@@ -44,15 +88,83 @@ public class ProjectState implements Serializable, Cloneable {
 	// fully-qualified component type to plugin-root-relative (portable) path of corresponding generated DS file
 	private Map<String, String> files;
 
+	// plugin-root-relative (portable) path of generated DS file to component types mapped to it (i.e., its references);
+	// derived from files, and built on demand
+	private transient Map<String, Collection<String>> fileTypes;
+
+	// fully-qualified component type to fingerprint of its resolved descriptor and modification stamp of the generated DS file
+	// note: not part of the legacy serialized form
+	private transient Map<String, Fingerprint> fingerprints;
+
+	// component type -> (frozen) descriptor it was last processed with
+	// note: only persisted in binary format
+	private transient Map<String, ComponentDescriptor> components;
+
+	// component type -> keys of files declaring other types (e.g., superclasses) its resolution depended on
+	// note: only persisted in binary format
+	private transient Map<String, Collection<String>> dependencies;
+
+	// file key -> component types whose resolution depended on it; derived from dependencies, and built on demand
+	private transient Map<String, Collection<String>> dependents;
+
 	// (de)serialized state file format version
 	private int formatVersion = FORMAT_VERSION;
 
+	// incremented whenever state actually changes; not persisted
+	private transient int modCount;
+
+	// CUs whose mappings changed since changes were last cleared; not persisted
+	private transient Set<String> changedCUs;
+
+	// component types whose fingerprints changed since changes were last cleared; not persisted
+	private transient Set<String> changedTypes;
+
+	// snapshot generation; journals written against other generations are stale
+	// note: not part of the legacy serialized form
+	private transient long generation;
+
 	public int getFormatVersion() {
 		return formatVersion;
 	}
 
 	public void setFormatVersion(int formatVersion) {
-		this.formatVersion = formatVersion;
+		if (this.formatVersion != formatVersion) {
+			this.formatVersion = formatVersion;
+			++modCount;
+		}
+	}
+
+	/**
+	 * Returns a counter that is incremented on every actual change to this
+	 * state; comparing two values is a cheap way to determine whether the
+	 * state changed in between.
+	 */
+	public int getModificationCount() {
+		return modCount;
+	}
+
+	/**
+	 * Returns keys of CUs whose mappings changed since the last call to
+	 * {@link #clearChanges()}.
+	 */
+	public Collection<String> getChangedCompilationUnits() {
+		if (changedCUs == null)
+			return Collections.emptySet();
+
+		return Collections.unmodifiableCollection(changedCUs);
+	}
+
+	public void clearChanges() {
+		changedCUs = null;
+		changedTypes = null;
+	}
+
+	private void markChanged(String cuKey) {
+		if (changedCUs == null)
+			changedCUs = new LinkedHashSet<String>();
+
+		changedCUs.add(cuKey);
+		++modCount;
 	}
 
 	public Collection<String> getCompilationUnits() {
@@ -74,6 +186,15 @@ public class ProjectState implements Serializable, Cloneable {
 	}
 
 	public Collection<String> removeMappings(String cuKey) {
+		boolean mapped = types == null ? mappings.containsKey(toLegacyCUKey(cuKey)) : types.containsKey(cuKey);
+		Collection<String> oldDSKeys = removeMappings(cuKey, Collections.<String>emptySet());
+		if (mapped)
+			markChanged(cuKey);
+
+		return oldDSKeys;
+	}
+
+	private Collection<String> removeMappings(String cuKey, Collection<String> retainedTypes) {
 		if (types == null) {
 			// fall back to (deprecated) mappings
 			return mappings.remove(toLegacyCUKey(cuKey));
@@ -88,8 +209,31 @@ public class ProjectState implements Serializable, Cloneable {
 			oldDSKeys = new HashSet<String>(cuTypes.size());
 			for (String type : cuTypes) {
 				String dsKey = files.remove(type);
-				if (dsKey != null)
+				if (dsKey != null) {
 					oldDSKeys.add(dsKey);
+					removeFileType(dsKey, type);
+				}
+			}
+		}
+
+		if (fingerprints != null) {
+			for (String type : cuTypes) {
+				if (!retainedTypes.contains(type) && fingerprints.remove(type) != null)
+					markTypeChanged(type);
+			}
+		}
+
+		if (components != null) {
+			for (String type : cuTypes) {
+				if (!retainedTypes.contains(type) && components.remove(type) != null)
+					markTypeChanged(type);
+			}
+		}
+
+		if (dependencies != null) {
+			for (String type : cuTypes) {
+				if (!retainedTypes.contains(type) && removeDependencies(type) != null)
+					markTypeChanged(type);
 			}
 		}
 
@@ -125,22 +269,355 @@ public class ProjectState implements Serializable, Cloneable {
 		return files == null ? null : files.get(className);
 	}
 
+	/**
+	 * Returns keys of all DS files currently mapped to at least one component
+	 * type.
+	 */
+	public Collection<String> getModelFileKeys() {
+		if (types == null) {
+			// fall back to (deprecated) mappings
+			HashSet<String> dsKeys = new HashSet<String>();
+			for (Collection<String> cuFiles : mappings.values()) {
+				dsKeys.addAll(cuFiles);
+			}
+
+			return Collections.unmodifiableCollection(dsKeys);
+		}
+
+		return Collections.unmodifiableCollection(getFileTypes().keySet());
+	}
+
+	/**
+	 * Determines whether the given DS file is mapped to at least one component
+	 * type.
+	 */
+	public boolean isModelFileMapped(String dsKey) {
+		if (types == null)
+			return getModelFileKeys().contains(dsKey);
+
+		return getFileTypes().containsKey(dsKey);
+	}
+
+	/**
+	 * Returns component types mapped to the given DS file.
+	 */
+	public Collection<String> getModelFileTypes(String dsKey) {
+		Collection<String> dsTypes = types == null ? null : getFileTypes().get(dsKey);
+		return dsTypes == null ? Collections.<String>emptySet() : Collections.unmodifiableCollection(dsTypes);
+	}
+
+	private Map<String, Collection<String>> getFileTypes() {
+		if (fileTypes == null) {
+			fileTypes = new HashMap<String, Collection<String>>();
+			if (files != null) {
+				for (Map.Entry<String, String> entry : files.entrySet()) {
+					addFileType(entry.getValue(), entry.getKey());
+				}
+			}
+		}
+
+		return fileTypes;
+	}
+
+	private void addFileType(String dsKey, String type) {
+		if (fileTypes == null)
+			return;
+
+		Collection<String> dsTypes = fileTypes.get(dsKey);
+		if (dsTypes == null) {
+			// most files are generated for exactly one type
+			dsTypes = new HashSet<String>(2);
+			fileTypes.put(dsKey, dsTypes);
+		}
+
+		dsTypes.add(type);
+	}
+
+	private void removeFileType(String dsKey, String type) {
+		if (fileTypes == null)
+			return;
+
+		Collection<String> dsTypes = fileTypes.get(dsKey);
+		if (dsTypes != null && dsTypes.remove(type) && dsTypes.isEmpty())
+			fileTypes.remove(dsKey);
+	}
+
 	public Collection<String> updateMappings(String cuKey, HashMap<String, String> dsKeys) {
-		Collection<String> oldDSKeys = removeMappings(cuKey);
+		boolean changed = !isMapped(cuKey, dsKeys);
+		Collection<String> oldDSKeys = removeMappings(cuKey, dsKeys.keySet());
 		if (!dsKeys.isEmpty()) {
 			getTypes().put(cuKey, new HashSet<String>(dsKeys.keySet()));
-			getFiles().putAll(dsKeys);
+			Map<String, String> files = getFiles();
+			for (Map.Entry<String, String> entry : dsKeys.entrySet()) {
+				String oldDSKey = files.put(entry.getKey(), entry.getValue());
+				if (oldDSKey != null)
+					removeFileType(oldDSKey, entry.getKey());
+
+				addFileType(entry.getValue(), entry.getKey());
+			}
 		}
 
+		if (changed)
+			markChanged(cuKey);
+
 		return oldDSKeys;
 	}
 
+	/**
+	 * Re-maps component types from their current DS files to new ones, as
+	 * given by the map of old to new DS file keys. Returns <code>false</code>
+	 * (and makes no changes) if this state still uses (deprecated) mappings,
+	 * which don't record individual types.
+	 */
+	public boolean relocateModelFiles(Map<String, String> dsKeys) {
+		if (types == null)
+			return mappings.isEmpty();
+
+		if (files == null || dsKeys.isEmpty())
+			return true;
+
+		for (Map.Entry<String, Collection<String>> entry : types.entrySet()) {
+			boolean changed = false;
+			for (String type : entry.getValue()) {
+				String dsKey = files.get(type);
+				String newDSKey = dsKey == null ? null : dsKeys.get(dsKey);
+				if (newDSKey == null || newDSKey.equals(dsKey))
+					continue;
+
+				files.put(type, newDSKey);
+				removeFileType(dsKey, type);
+				addFileType(newDSKey, type);
+				changed = true;
+			}
+
+			if (changed)
+				markChanged(entry.getKey());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Determines whether the given CU is currently mapped to exactly the given
+	 * component types and DS files.
+	 */
+	private boolean isMapped(String cuKey, Map<String, String> dsKeys) {
+		if (types == null)
+			return false;
+
+		Collection<String> cuTypes = types.get(cuKey);
+		if (cuTypes == null)
+			return dsKeys.isEmpty();
+
+		if (!cuTypes.equals(dsKeys.keySet()) || files == null)
+			return false;
+
+		for (Map.Entry<String, String> entry : dsKeys.entrySet()) {
+			String dsKey = files.get(entry.getKey());
+			if (dsKey == null ? entry.getValue() != null : !dsKey.equals(entry.getValue()))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Determines whether the given component type's DS file was last generated
+	 * from a descriptor with the given fingerprint, and hasn't been modified
+	 * since.
+	 */
+	public boolean isUpToDate(String className, long fingerprint, long modificationStamp) {
+		if (fingerprints == null)
+			return false;
+
+		Fingerprint value = fingerprints.get(className);
+		return value != null && value.value == fingerprint && value.stamp == modificationStamp;
+	}
+
+	public void setFingerprint(String className, long fingerprint, long modificationStamp) {
+		if (fingerprints == null)
+			fingerprints = new HashMap<String, Fingerprint>();
+
+		Fingerprint value = new Fingerprint(fingerprint, modificationStamp);
+		if (!value.equals(fingerprints.put(className, value))) {
+			markTypeChanged(className);
+			++modCount;
+		}
+	}
+
+	/**
+	 * Returns the descriptor the given component type was last processed
+	 * with, or <code>null</code> if unknown (e.g., the state was converted
+	 * from legacy format and the type hasn't been processed since).
+	 */
+	public ComponentDescriptor getComponentDescriptor(String className) {
+		return components == null ? null : components.get(className);
+	}
+
+	/**
+	 * Returns descriptors of all known component types, keyed by type.
+	 */
+	public Map<String, ComponentDescriptor> getComponentDescriptors() {
+		return components == null ? Collections.<String, ComponentDescriptor>emptyMap() : Collections.unmodifiableMap(components);
+	}
+
+	/**
+	 * Retains the given descriptor (which is frozen, if not already) for the
+	 * given component type.
+	 */
+	public void setComponentDescriptor(String className, ComponentDescriptor descriptor) {
+		descriptor.freeze();
+		if (components == null)
+			components = new HashMap<String, ComponentDescriptor>();
+
+		ComponentDescriptor oldDescriptor = components.put(className, descriptor);
+		if (oldDescriptor == null || oldDescriptor.getFingerprint() != descriptor.getFingerprint()) {
+			markTypeChanged(className);
+			++modCount;
+		}
+	}
+
+	/**
+	 * Records the keys (i.e., full paths) of source files declaring types
+	 * (other than the component type itself) whose members the given
+	 * component type's resolution depended on, such as superclasses searched
+	 * for inherited methods.
+	 */
+	public void setDependencies(String className, Collection<String> fileKeys) {
+		HashSet<String> values = new HashSet<String>(fileKeys);
+		Collection<String> oldValues = removeDependencies(className);
+		if (!values.isEmpty()) {
+			if (dependencies == null)
+				dependencies = new HashMap<String, Collection<String>>();
+
+			dependencies.put(className, values);
+			for (String fileKey : values) {
+				addDependent(fileKey, className);
+			}
+		}
+
+		if (oldValues == null ? !values.isEmpty() : !oldValues.equals(values)) {
+			markTypeChanged(className);
+			++modCount;
+		}
+	}
+
+	public boolean hasDependencies() {
+		return dependencies != null && !dependencies.isEmpty();
+	}
+
+	/**
+	 * Returns component types whose resolution depended on types declared in
+	 * any of the given files.
+	 */
+	public Collection<String> getDependentTypes(Collection<String> fileKeys) {
+		if (!hasDependencies())
+			return Collections.emptySet();
+
+		Map<String, Collection<String>> dependents = getDependents();
+		LinkedHashSet<String> result = new LinkedHashSet<String>();
+		for (String fileKey : fileKeys) {
+			Collection<String> values = dependents.get(fileKey);
+			if (values != null)
+				result.addAll(values);
+		}
+
+		return result;
+	}
+
+	private Map<String, Collection<String>> getDependents() {
+		if (dependents == null) {
+			dependents = new HashMap<String, Collection<String>>();
+			if (dependencies != null) {
+				for (Map.Entry<String, Collection<String>> entry : dependencies.entrySet()) {
+					for (String fileKey : entry.getValue()) {
+						addDependent(fileKey, entry.getKey());
+					}
+				}
+			}
+		}
+
+		return dependents;
+	}
+
+	private void addDependent(String fileKey, String className) {
+		if (dependents == null)
+			return;
+
+		Collection<String> values = dependents.get(fileKey);
+		if (values == null) {
+			values = new HashSet<String>(2);
+			dependents.put(fileKey, values);
+		}
+
+		values.add(className);
+	}
+
+	private Collection<String> removeDependencies(String className) {
+		Collection<String> fileKeys = dependencies == null ? null : dependencies.remove(className);
+		if (fileKeys != null && dependents != null) {
+			for (String fileKey : fileKeys) {
+				Collection<String> values = dependents.get(fileKey);
+				if (values != null && values.remove(className) && values.isEmpty())
+					dependents.remove(fileKey);
+			}
+		}
+
+		return fileKeys;
+	}
+
+	/**
+	 * Returns keys of CUs that contain any of the given component types.
+	 */
+	public Collection<String> getDeclaringCompilationUnits(Collection<String> classNames) {
+		if (types == null || classNames.isEmpty())
+			return Collections.emptySet();
+
+		HashSet<String> cuKeys = new HashSet<String>();
+		for (Map.Entry<String, Collection<String>> entry : types.entrySet()) {
+			for (String type : entry.getValue()) {
+				if (classNames.contains(type)) {
+					cuKeys.add(entry.getKey());
+					break;
+				}
+			}
+		}
+
+		return cuKeys;
+	}
+
+	private void markTypeChanged(String className) {
+		if (changedTypes == null)
+			changedTypes = new LinkedHashSet<String>();
+
+		changedTypes.add(className);
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public void setGeneration(long generation) {
+		this.generation = generation;
+	}
+
+	/**
+	 * Determines whether changes to this state can be journaled; state still
+	 * using (deprecated) mappings can only be written in full.
+	 */
+	public boolean isJournalable() {
+		return types != null || mappings.isEmpty();
+	}
+
 	public String getPath() {
 		return path;
 	}
 
 	public void setPath(String path) {
-		this.path = path;
+		if (this.path == null ? path != null : !this.path.equals(path)) {
+			this.path = path;
+			++modCount;
+		}
 	}
 
 	public ValidationErrorLevel getErrorLevel() {
@@ -148,7 +625,10 @@ public class ProjectState implements Serializable, Cloneable {
 	}
 
 	public void setErrorLevel(ValidationErrorLevel errorLevel) {
-		this.errorLevel = errorLevel;
+		if (this.errorLevel != errorLevel) {
+			this.errorLevel = errorLevel;
+			++modCount;
+		}
 	}
 
 	public ValidationErrorLevel getMissingUnbindMethodLevel() {
@@ -156,7 +636,10 @@ public class ProjectState implements Serializable, Cloneable {
 	}
 
 	public void setMissingUnbindMethodLevel(ValidationErrorLevel missingUnbindMethodLevel) {
-		this.missingUnbindMethodLevel = missingUnbindMethodLevel;
+		if (this.missingUnbindMethodLevel != missingUnbindMethodLevel) {
+			this.missingUnbindMethodLevel = missingUnbindMethodLevel;
+			++modCount;
+		}
 	}
 
 	private Map<String, Collection<String>> getTypes() {
@@ -173,6 +656,639 @@ public class ProjectState implements Serializable, Cloneable {
 		return files;
 	}
 
+	/**
+	 * Determines whether the given buffer, positioned at the beginning of a
+	 * state file, contains state in binary format (as opposed to legacy
+	 * serialized form).
+	 */
+	public static boolean isBinary(ByteBuffer buf) {
+		return buf.remaining() >= 4 && buf.getInt(buf.position()) == MAGIC;
+	}
+
+	/**
+	 * Writes this state in binary format.
+	 *
+	 * <p>
+	 * All strings are written once into a table at the beginning of the
+	 * stream, and referenced by index thereafter. The rest of the stream
+	 * consists of tagged, length-prefixed sections; readers skip sections they
+	 * don't recognize.
+	 * </p>
+	 */
+	public void write(OutputStream stream) throws IOException {
+		LinkedHashMap<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		intern(strings, path);
+		internAll(strings, mappings);
+		if (types != null)
+			internAll(strings, types);
+
+		if (files != null) {
+			for (Map.Entry<String, String> entry : files.entrySet()) {
+				intern(strings, entry.getKey());
+				intern(strings, entry.getValue());
+			}
+		}
+
+		if (fingerprints != null) {
+			for (String type : fingerprints.keySet()) {
+				intern(strings, type);
+			}
+		}
+
+		if (dependencies != null)
+			internAll(strings, dependencies);
+
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeInt(formatVersion);
+
+		out.writeInt(strings.size());
+		for (String value : strings.keySet()) {
+			byte[] bytes = value.getBytes("UTF-8"); //$NON-NLS-1$
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream section = new DataOutputStream(bytes);
+
+		section.writeInt(indexOf(strings, path));
+		section.writeByte(errorLevel == null ? -1 : errorLevel.ordinal());
+		section.writeByte(missingUnbindMethodLevel == null ? -1 : missingUnbindMethodLevel.ordinal());
+		writeSection(out, SECTION_SETTINGS, bytes);
+
+		writeMultiMap(section, strings, mappings);
+		writeSection(out, SECTION_MAPPINGS, bytes);
+
+		if (types != null) {
+			writeMultiMap(section, strings, types);
+			writeSection(out, SECTION_TYPES, bytes);
+		}
+
+		if (files != null) {
+			section.writeInt(files.size());
+			for (Map.Entry<String, String> entry : files.entrySet()) {
+				section.writeInt(indexOf(strings, entry.getKey()));
+				section.writeInt(indexOf(strings, entry.getValue()));
+			}
+
+			writeSection(out, SECTION_FILES, bytes);
+		}
+
+		if (fingerprints != null) {
+			section.writeInt(fingerprints.size());
+			for (Map.Entry<String, Fingerprint> entry : fingerprints.entrySet()) {
+				section.writeInt(indexOf(strings, entry.getKey()));
+				section.writeLong(entry.getValue().value);
+				section.writeLong(entry.getValue().stamp);
+			}
+
+			writeSection(out, SECTION_FINGERPRINTS, bytes);
+		}
+
+		section.writeLong(generation);
+		writeSection(out, SECTION_GENERATION, bytes);
+
+		if (components != null) {
+			section.writeInt(components.size());
+			for (Map.Entry<String, ComponentDescriptor> entry : components.entrySet()) {
+				writeString(section, entry.getKey());
+				writeComponent(section, entry.getValue());
+			}
+
+			writeSection(out, SECTION_COMPONENTS, bytes);
+		}
+
+		if (dependencies != null) {
+			writeMultiMap(section, strings, dependencies);
+			writeSection(out, SECTION_DEPENDENCIES, bytes);
+		}
+
+		out.writeByte(SECTION_END);
+		out.flush();
+	}
+
+	private static void intern(Map<String, Integer> strings, String value) {
+		if (value != null && !strings.containsKey(value))
+			strings.put(value, strings.size());
+	}
+
+	private static void internAll(Map<String, Integer> strings, Map<String, Collection<String>> map) {
+		for (Map.Entry<String, Collection<String>> entry : map.entrySet()) {
+			intern(strings, entry.getKey());
+			for (String value : entry.getValue()) {
+				intern(strings, value);
+			}
+		}
+	}
+
+	private static int indexOf(Map<String, Integer> strings, String value) {
+		return value == null ? -1 : strings.get(value).intValue();
+	}
+
+	private static void writeMultiMap(DataOutputStream out, Map<String, Integer> strings, Map<String, Collection<String>> map) throws IOException {
+		out.writeInt(map.size());
+		for (Map.Entry<String, Collection<String>> entry : map.entrySet()) {
+			out.writeInt(indexOf(strings, entry.getKey()));
+			out.writeInt(entry.getValue().size());
+			for (String value : entry.getValue()) {
+				out.writeInt(indexOf(strings, value));
+			}
+		}
+	}
+
+	private static void writeSection(DataOutputStream out, byte tag, ByteArrayOutputStream bytes) throws IOException {
+		out.writeByte(tag);
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+		bytes.reset();
+	}
+
+	/**
+	 * Reads state in binary format from the given buffer (e.g., one mapped
+	 * directly from the state file).
+	 */
+	public static ProjectState read(ByteBuffer buf) throws IOException {
+		try {
+			if (buf.getInt() != MAGIC)
+				throw new IOException("Invalid project state file signature."); //$NON-NLS-1$
+
+			ProjectState state = new ProjectState();
+			state.formatVersion = buf.getInt();
+
+			String[] strings = new String[readCount(buf, 4)];
+			for (int i = 0; i < strings.length; ++i) {
+				int length = buf.getInt();
+				ByteBuffer slice = buf.slice();
+				slice.limit(length);
+				strings[i] = UTF8.decode(slice).toString();
+				buf.position(buf.position() + length);
+			}
+
+			byte tag;
+			while ((tag = buf.get()) != SECTION_END) {
+				int length = buf.getInt();
+				int end = buf.position() + length;
+				switch (tag) {
+				case SECTION_SETTINGS:
+					state.path = readString(buf, strings);
+					state.errorLevel = readErrorLevel(buf);
+					state.missingUnbindMethodLevel = readErrorLevel(buf);
+					break;
+				case SECTION_MAPPINGS:
+					state.mappings = readMultiMap(buf, strings);
+					break;
+				case SECTION_TYPES:
+					state.types = readMultiMap(buf, strings);
+					break;
+				case SECTION_FILES:
+					state.files = readMap(buf, strings);
+					break;
+				case SECTION_FINGERPRINTS:
+					state.fingerprints = readFingerprints(buf, strings);
+					break;
+				case SECTION_GENERATION:
+					state.generation = buf.getLong();
+					break;
+				case SECTION_COMPONENTS:
+					state.components = readComponents(buf);
+					break;
+				case SECTION_DEPENDENCIES:
+					state.dependencies = readMultiMap(buf, strings);
+					break;
+				default:
+					// skip unknown section
+				}
+
+				buf.position(end);
+			}
+
+			return state;
+		} catch (BufferUnderflowException e) {
+			IOException ex = new IOException("Truncated project state file."); //$NON-NLS-1$
+			ex.initCause(e);
+			throw ex;
+		} catch (IndexOutOfBoundsException e) {
+			IOException ex = new IOException("Corrupt project state file."); //$NON-NLS-1$
+			ex.initCause(e);
+			throw ex;
+		} catch (IllegalArgumentException e) {
+			IOException ex = new IOException("Corrupt project state file."); //$NON-NLS-1$
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	private static String readString(ByteBuffer buf, String[] strings) {
+		int index = buf.getInt();
+		return index == -1 ? null : strings[index];
+	}
+
+	private static ValidationErrorLevel readErrorLevel(ByteBuffer buf) {
+		int ordinal = buf.get();
+		return ordinal == -1 ? null : ValidationErrorLevel.values()[ordinal];
+	}
+
+	private static Map<String, Collection<String>> readMultiMap(ByteBuffer buf, String[] strings) {
+		int size = readCount(buf, 8);
+		HashMap<String, Collection<String>> map = new HashMap<String, Collection<String>>(capacity(size));
+		for (int i = 0; i < size; ++i) {
+			String key = readString(buf, strings);
+			int count = readCount(buf, 4);
+			HashSet<String> values = new HashSet<String>(capacity(count));
+			for (int j = 0; j < count; ++j) {
+				values.add(readString(buf, strings));
+			}
+
+			map.put(key, values);
+		}
+
+		return map;
+	}
+
+	private static Map<String, String> readMap(ByteBuffer buf, String[] strings) {
+		int size = readCount(buf, 8);
+		HashMap<String, String> map = new HashMap<String, String>(capacity(size));
+		for (int i = 0; i < size; ++i) {
+			map.put(readString(buf, strings), readString(buf, strings));
+		}
+
+		return map;
+	}
+
+	private static Map<String, Fingerprint> readFingerprints(ByteBuffer buf, String[] strings) {
+		int size = readCount(buf, 20);
+		HashMap<String, Fingerprint> map = new HashMap<String, Fingerprint>(capacity(size));
+		for (int i = 0; i < size; ++i) {
+			String key = readString(buf, strings);
+			long value = buf.getLong();
+			map.put(key, new Fingerprint(value, buf.getLong()));
+		}
+
+		return map;
+	}
+
+	private static Map<String, ComponentDescriptor> readComponents(ByteBuffer buf) {
+		int size = readCount(buf, 4);
+		HashMap<String, ComponentDescriptor> map = new HashMap<String, ComponentDescriptor>(capacity(size));
+		for (int i = 0; i < size; ++i) {
+			String key = readInlineString(buf);
+			map.put(key, readComponent(buf));
+		}
+
+		return map;
+	}
+
+	private static void writeComponent(DataOutput out, ComponentDescriptor descriptor) throws IOException {
+		writeString(out, descriptor.getName());
+		writeString(out, descriptor.getImplClass());
+		writeString(out, descriptor.getDSKey());
+		writeStrings(out, descriptor.getServices());
+		writeString(out, descriptor.getFactory());
+		writeBoolean(out, descriptor.getServiceFactory());
+		writeBoolean(out, descriptor.getEnabled());
+		writeBoolean(out, descriptor.getImmediate());
+		writeStrings(out, Arrays.asList(descriptor.getProperties()));
+		writeStrings(out, Arrays.asList(descriptor.getPropertyFiles()));
+		writeString(out, descriptor.getConfigPolicy());
+		writeString(out, descriptor.getConfigPid());
+		writeString(out, descriptor.getActivate());
+		out.writeBoolean(descriptor.hasImplicitActivate());
+		writeString(out, descriptor.getDeactivate());
+		out.writeBoolean(descriptor.hasImplicitDeactivate());
+		writeString(out, descriptor.getModified());
+		writeString(out, descriptor.getXMLNS());
+
+		out.writeInt(descriptor.getReferences().size());
+		for (ComponentDescriptor.Reference reference : descriptor.getReferences()) {
+			writeString(out, reference.getBind());
+			writeString(out, reference.getName());
+			writeString(out, reference.getService());
+			writeString(out, reference.getCardinality());
+			writeString(out, reference.getPolicy());
+			writeString(out, reference.getTarget());
+			writeString(out, reference.getUnbind());
+			writeString(out, reference.getPolicyOption());
+			writeString(out, reference.getUpdated());
+		}
+	}
+
+	private static ComponentDescriptor readComponent(ByteBuffer buf) {
+		ComponentDescriptor descriptor = new ComponentDescriptor();
+		descriptor.setName(readInlineString(buf));
+		descriptor.setImplClass(readInlineString(buf));
+		descriptor.setDSKey(readInlineString(buf));
+		descriptor.setServices(readStrings(buf));
+		descriptor.setFactory(readInlineString(buf));
+		descriptor.setServiceFactory(readBoolean(buf));
+		descriptor.setEnabled(readBoolean(buf));
+		descriptor.setImmediate(readBoolean(buf));
+		List<String> properties = readStrings(buf);
+		descriptor.setProperties(properties.toArray(new String[properties.size()]));
+		List<String> propertyFiles = readStrings(buf);
+		descriptor.setPropertyFiles(propertyFiles.toArray(new String[propertyFiles.size()]));
+		descriptor.setConfigPolicy(readInlineString(buf));
+		descriptor.setConfigPid(readInlineString(buf));
+		descriptor.setActivate(readInlineString(buf));
+		descriptor.setImplicitActivate(buf.get() != 0);
+		descriptor.setDeactivate(readInlineString(buf));
+		descriptor.setImplicitDeactivate(buf.get() != 0);
+		descriptor.setModified(readInlineString(buf));
+		descriptor.setXMLNS(readInlineString(buf));
+
+		int count = readCount(buf, 36);
+		for (int i = 0; i < count; ++i) {
+			ComponentDescriptor.Reference reference = new ComponentDescriptor.Reference(readInlineString(buf));
+			reference.setName(readInlineString(buf));
+			reference.setService(readInlineString(buf));
+			reference.setCardinality(readInlineString(buf));
+			reference.setPolicy(readInlineString(buf));
+			reference.setTarget(readInlineString(buf));
+			reference.setUnbind(readInlineString(buf));
+			reference.setPolicyOption(readInlineString(buf));
+			reference.setUpdated(readInlineString(buf));
+			descriptor.getReferences().add(reference);
+		}
+
+		return descriptor.freeze();
+	}
+
+	private static void writeStrings(DataOutput out, Collection<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) {
+			writeString(out, value);
+		}
+	}
+
+	private static List<String> readStrings(ByteBuffer buf) {
+		int count = readCount(buf, 4);
+		ArrayList<String> values = new ArrayList<String>(count);
+		for (int i = 0; i < count; ++i) {
+			values.add(readInlineString(buf));
+		}
+
+		return values;
+	}
+
+	private static void writeBoolean(DataOutput out, Boolean value) throws IOException {
+		out.writeByte(value == null ? -1 : value.booleanValue() ? 1 : 0);
+	}
+
+	private static Boolean readBoolean(ByteBuffer buf) {
+		int value = buf.get();
+		return value == -1 ? null : Boolean.valueOf(value != 0);
+	}
+
+	/**
+	 * Writes changes made since they were last cleared as a single journal
+	 * entry.
+	 *
+	 * <p>
+	 * Entries record the current settings, and the current mappings (or their
+	 * absence) of changed CUs and fingerprints of changed types; applying them
+	 * in order on top of the snapshot they were written against reproduces the
+	 * current state.
+	 * </p>
+	 */
+	public void writeChanges(DataOutput out) throws IOException {
+		out.writeInt(formatVersion);
+		writeString(out, path);
+		out.writeByte(errorLevel == null ? -1 : errorLevel.ordinal());
+		out.writeByte(missingUnbindMethodLevel == null ? -1 : missingUnbindMethodLevel.ordinal());
+
+		Collection<String> cuKeys = getChangedCompilationUnits();
+		out.writeInt(cuKeys.size());
+		for (String cuKey : cuKeys) {
+			writeString(out, cuKey);
+			Collection<String> cuTypes = types == null ? null : types.get(cuKey);
+			if (cuTypes == null) {
+				out.writeInt(-1);
+				continue;
+			}
+
+			out.writeInt(cuTypes.size());
+			for (String type : cuTypes) {
+				writeString(out, type);
+				writeString(out, files == null ? null : files.get(type));
+			}
+		}
+
+		if (changedTypes == null) {
+			out.writeInt(0);
+		} else {
+			out.writeInt(changedTypes.size());
+			for (String type : changedTypes) {
+				writeString(out, type);
+				Fingerprint fingerprint = fingerprints == null ? null : fingerprints.get(type);
+				out.writeBoolean(fingerprint != null);
+				if (fingerprint != null) {
+					out.writeLong(fingerprint.value);
+					out.writeLong(fingerprint.stamp);
+				}
+			}
+
+			// note: appended after fingerprints so that older entries remain readable
+			for (String type : changedTypes) {
+				ComponentDescriptor descriptor = components == null ? null : components.get(type);
+				out.writeBoolean(descriptor != null);
+				if (descriptor != null)
+					writeComponent(out, descriptor);
+			}
+
+			for (String type : changedTypes) {
+				Collection<String> fileKeys = dependencies == null ? null : dependencies.get(type);
+				out.writeBoolean(fileKeys != null);
+				if (fileKeys != null)
+					writeStrings(out, fileKeys);
+			}
+		}
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes("UTF-8"); //$NON-NLS-1$
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Applies a journal entry written by {@link #writeChanges(DataOutput)}.
+	 */
+	public void readChanges(ByteBuffer buf) throws IOException {
+		try {
+			setFormatVersion(buf.getInt());
+			setPath(readInlineString(buf));
+			setErrorLevel(readErrorLevel(buf));
+			setMissingUnbindMethodLevel(readErrorLevel(buf));
+
+			int cuCount = readCount(buf, 8);
+			for (int i = 0; i < cuCount; ++i) {
+				String cuKey = readInlineString(buf);
+				int count = buf.getInt();
+				if (count == -1) {
+					removeMappings(cuKey);
+					continue;
+				}
+
+				checkCount(buf, count, 8);
+
+				HashMap<String, String> dsKeys = new HashMap<String, String>(capacity(count));
+				for (int j = 0; j < count; ++j) {
+					dsKeys.put(readInlineString(buf), readInlineString(buf));
+				}
+
+				updateMappings(cuKey, dsKeys);
+			}
+
+			int typeCount = readCount(buf, 5);
+			String[] types = new String[typeCount];
+			for (int i = 0; i < typeCount; ++i) {
+				String type = types[i] = readInlineString(buf);
+				if (buf.get() != 0) {
+					long value = buf.getLong();
+					setFingerprint(type, value, buf.getLong());
+				} else if (fingerprints != null) {
+					fingerprints.remove(type);
+				}
+			}
+
+			if (typeCount > 0 && buf.hasRemaining()) {
+				for (String type : types) {
+					if (buf.get() != 0)
+						setComponentDescriptor(type, readComponent(buf));
+					else if (components != null)
+						components.remove(type);
+				}
+			}
+
+			if (typeCount > 0 && buf.hasRemaining()) {
+				for (String type : types) {
+					if (buf.get() != 0)
+						setDependencies(type, readStrings(buf));
+					else
+						removeDependencies(type);
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			IOException ex = new IOException("Truncated project state journal entry."); //$NON-NLS-1$
+			ex.initCause(e);
+			throw ex;
+		} catch (IndexOutOfBoundsException e) {
+			IOException ex = new IOException("Corrupt project state journal entry."); //$NON-NLS-1$
+			ex.initCause(e);
+			throw ex;
+		} catch (IllegalArgumentException e) {
+			IOException ex = new IOException("Corrupt project state journal entry."); //$NON-NLS-1$
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	private static String readInlineString(ByteBuffer buf) {
+		int length = buf.getInt();
+		if (length == -1)
+			return null;
+
+		ByteBuffer slice = buf.slice();
+		slice.limit(length);
+		String value = UTF8.decode(slice).toString();
+		buf.position(buf.position() + length);
+		return value;
+	}
+
+	private static int readCount(ByteBuffer buf, int entrySize) {
+		return checkCount(buf, buf.getInt(), entrySize);
+	}
+
+	// counts are checked against what's left before anything is allocated for them
+	private static int checkCount(ByteBuffer buf, int count, int entrySize) {
+		if (count < 0 || count > buf.remaining() / entrySize)
+			throw new IllegalArgumentException(String.format("Invalid count: %d", count)); //$NON-NLS-1$
+
+		return count;
+	}
+
+	private static int capacity(int size) {
+		return Math.max(16, (int) (size / .75f) + 1);
+	}
+
+	/**
+	 * Returns a rough estimate of this state's heap footprint (in bytes).
+	 */
+	public long estimateSize() {
+		long size = OBJECT_SIZE + estimateSize(path);
+		size += estimateSize(mappings);
+		if (types != null)
+			size += estimateSize(types);
+
+		if (files != null) {
+			size += OBJECT_SIZE + (long) files.size() * ENTRY_SIZE;
+			for (Map.Entry<String, String> entry : files.entrySet()) {
+				size += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+			}
+		}
+
+		if (fingerprints != null)
+			size += OBJECT_SIZE + (long) fingerprints.size() * (ENTRY_SIZE + OBJECT_SIZE);
+
+		// keys and values are shared with files
+		if (fileTypes != null)
+			size += OBJECT_SIZE + (long) fileTypes.size() * (2 * ENTRY_SIZE + OBJECT_SIZE);
+
+		if (dependencies != null)
+			size += estimateSize(dependencies);
+
+		// keys and values are shared with dependencies
+		if (dependents != null)
+			size += OBJECT_SIZE + (long) dependents.size() * (2 * ENTRY_SIZE + OBJECT_SIZE);
+
+		if (components != null) {
+			size += OBJECT_SIZE + (long) components.size() * ENTRY_SIZE;
+			for (ComponentDescriptor descriptor : components.values()) {
+				size += estimateSize(descriptor);
+			}
+		}
+
+		return size;
+	}
+
+	private static long estimateSize(Map<String, Collection<String>> map) {
+		long size = OBJECT_SIZE + (long) map.size() * ENTRY_SIZE;
+		for (Map.Entry<String, Collection<String>> entry : map.entrySet()) {
+			size += estimateSize(entry.getKey()) + OBJECT_SIZE;
+			for (String value : entry.getValue()) {
+				size += ENTRY_SIZE + estimateSize(value);
+			}
+		}
+
+		return size;
+	}
+
+	private static long estimateSize(ComponentDescriptor descriptor) {
+		long size = 3 * OBJECT_SIZE + estimateSize(descriptor.getName()) + estimateSize(descriptor.getConfigPid());
+		for (String service : descriptor.getServices()) {
+			size += ENTRY_SIZE + estimateSize(service);
+		}
+
+		for (String property : descriptor.getProperties()) {
+			size += ENTRY_SIZE + estimateSize(property);
+		}
+
+		// note: other strings are mostly shared with mappings, or short
+		for (ComponentDescriptor.Reference reference : descriptor.getReferences()) {
+			size += OBJECT_SIZE + ENTRY_SIZE + estimateSize(reference.getName()) + estimateSize(reference.getBind());
+		}
+
+		return size;
+	}
+
+	private static long estimateSize(String value) {
+		return value == null ? 0 : OBJECT_SIZE + 2L * value.length();
+	}
+
 	@Override
 	public ProjectState clone() {
 		ProjectState clone;
@@ -196,6 +1312,35 @@ public class ProjectState implements Serializable, Cloneable {
 			clone.files = new HashMap<String, String>(files);
 		}
 
+		// rebuilt on demand
+		clone.fileTypes = null;
+
+		if (fingerprints != null) {
+			clone.fingerprints = new HashMap<String, Fingerprint>(fingerprints);
+		}
+
+		// descriptors are immutable
+		if (components != null) {
+			clone.components = new HashMap<String, ComponentDescriptor>(components);
+		}
+
+		if (dependencies != null) {
+			clone.dependencies = new HashMap<String, Collection<String>>(dependencies.size());
+			for (Map.Entry<String, Collection<String>> entry : dependencies.entrySet())
+				clone.dependencies.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+		}
+
+		// rebuilt on demand
+		clone.dependents = null;
+
+		if (changedCUs != null) {
+			clone.changedCUs = new LinkedHashSet<String>(changedCUs);
+		}
+
+		if (changedTypes != null) {
+			clone.changedTypes = new LinkedHashSet<String>(changedTypes);
+		}
+
 		return clone;
 	}
 
@@ -214,7 +1359,26 @@ public class ProjectState implements Serializable, Cloneable {
 				&& missingUnbindMethodLevel == o.missingUnbindMethodLevel
 				&& mappings.equals(o.mappings)
 				&& (files == null ? o.files == null : files.equals(o.files))
-				&& (types == null ? o.types == null : types.equals(o.types));
+				&& (types == null ? o.types == null : types.equals(o.types))
+				&& (fingerprints == null ? o.fingerprints == null : fingerprints.equals(o.fingerprints))
+				&& (components == null ? o.components == null : components.equals(o.components))
+				&& (dependencies == null ? o.dependencies == null : dependencies.equals(o.dependencies))
+				&& generation == o.generation;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = formatVersion;
+		result = 31 * result + (path == null ? 0 : path.hashCode());
+		result = 31 * result + (errorLevel == null ? 0 : errorLevel.hashCode());
+		result = 31 * result + (missingUnbindMethodLevel == null ? 0 : missingUnbindMethodLevel.hashCode());
+		result = 31 * result + mappings.hashCode();
+		result = 31 * result + (files == null ? 0 : files.hashCode());
+		result = 31 * result + (types == null ? 0 : types.hashCode());
+		result = 31 * result + (fingerprints == null ? 0 : fingerprints.hashCode());
+		result = 31 * result + (components == null ? 0 : components.hashCode());
+		result = 31 * result + (dependencies == null ? 0 : dependencies.hashCode());
+		return 31 * result + (int) (generation ^ (generation >>> 32));
 	}
 
 	@Override
@@ -229,4 +1393,33 @@ public class ProjectState implements Serializable, Cloneable {
 		buf.append(formatVersion).append(']');
 		return buf.toString();
 	}
+
+	private static final class Fingerprint {
+
+		final long value;
+
+		final long stamp;
+
+		Fingerprint(long value, long stamp) {
+			this.value = value;
+			this.stamp = stamp;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (value ^ (value >>> 32)) * 31 + (int) (stamp ^ (stamp >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this)
+				return true;
+
+			if (!(obj instanceof Fingerprint))
+				return false;
+
+			Fingerprint o = (Fingerprint) obj;
+			return value == o.value && stamp == o.stamp;
+		}
+	}
 }
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.Platform;
+
+/**
+ * Workspace-wide cache of project states, bounded by a memory budget.
+ *
+ * <p>
+ * States are strongly held and evicted in least-recently-used order once their
+ * estimated total size exceeds the budget. States of projects being built are
+ * pinned and never evicted. Each state is associated with the timestamp of its
+ * state file, so that it's reloaded if the file changes behind our back.
+ * </p>
+ */
+public class ProjectStateCache implements IResourceChangeListener {
+
+	// default memory budget (in megabytes)
+	public static final int DEFAULT_SIZE = 32;
+
+	private static final Debug debug = Debug.getDebug("ds-annotation-builder/state-cache"); //$NON-NLS-1$
+
+	private final LinkedHashMap<IProject, Entry> entries = new LinkedHashMap<IProject, Entry>(16, .75f, true);
+
+	private long size;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	public ProjectStateCache() {
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(this, IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
+	}
+
+	/**
+	 * Returns the cached state of the given project, provided the state was
+	 * cached with the given state file timestamp (or is pinned).
+	 */
+	public synchronized ProjectState get(IProject project, long timestamp) {
+		Entry entry = entries.get(project);
+		if (entry != null && (entry.pinned || entry.timestamp == timestamp)) {
+			++hits;
+			return entry.state;
+		}
+
+		++misses;
+
+		if (entry != null) {
+			if (debug.isDebugging())
+				debug.traceEvent("State file of project %s changed.", project.getName()); //$NON-NLS-1$
+
+			remove(project);
+		}
+
+		return null;
+	}
+
+	public synchronized void put(IProject project, ProjectState state, long timestamp) {
+		remove(project);
+
+		Entry entry = new Entry(state, timestamp, state.estimateSize());
+		entries.put(project, entry);
+		size += entry.size;
+
+		evict(getBudget());
+	}
+
+	/**
+	 * Updates the cached state after it's been saved.
+	 */
+	public synchronized void update(IProject project, ProjectState state, long timestamp) {
+		Entry entry = entries.get(project);
+		if (entry == null || entry.state != state) {
+			put(project, state, timestamp);
+			return;
+		}
+
+		entry.timestamp = timestamp;
+		size -= entry.size;
+		entry.size = state.estimateSize();
+		size += entry.size;
+
+		evict(getBudget());
+	}
+
+	public synchronized boolean contains(IProject project) {
+		return entries.containsKey(project);
+	}
+
+	public synchronized void remove(IProject project) {
+		Entry entry = entries.remove(project);
+		if (entry != null)
+			size -= entry.size;
+	}
+
+	/**
+	 * Prevents the given project's state from being evicted (e.g., while the
+	 * project is being built).
+	 */
+	public synchronized void pin(IProject project) {
+		Entry entry = entries.get(project);
+		if (entry != null)
+			entry.pinned = true;
+	}
+
+	public synchronized void unpin(IProject project) {
+		Entry entry = entries.get(project);
+		if (entry != null) {
+			entry.pinned = false;
+			evict(getBudget());
+		}
+	}
+
+	private void evict(long budget) {
+		for (Iterator<Map.Entry<IProject, Entry>> i = entries.entrySet().iterator(); size > budget && i.hasNext();) {
+			Map.Entry<IProject, Entry> mapEntry = i.next();
+			Entry entry = mapEntry.getValue();
+			if (entry.pinned)
+				continue;
+
+			// always keep the most recently used state
+			if (!i.hasNext())
+				break;
+
+			i.remove();
+			size -= entry.size;
+			++evictions;
+
+			if (debug.isDebugging())
+				debug.traceEvent("Evicted state of project %s (%d bytes).", mapEntry.getKey().getName(), entry.size); //$NON-NLS-1$
+		}
+	}
+
+	private long getBudget() {
+		int megabytes = Platform.getPreferencesService().getInt(Activator.PLUGIN_ID, Activator.PREF_STATE_CACHE_SIZE, DEFAULT_SIZE, null);
+		return Math.max(0, megabytes) * 1024L * 1024L;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResource resource = event.getResource();
+		if (resource != null && resource.getType() == IResource.PROJECT)
+			remove((IProject) resource);
+	}
+
+	public void dispose() {
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+
+		synchronized (this) {
+			entries.clear();
+			size = 0;
+		}
+	}
+
+	private static class Entry {
+
+		final ProjectState state;
+
+		long timestamp;
+
+		long size;
+
+		boolean pinned;
+
+		Entry(ProjectState state, long timestamp, long size) {
+			this.state = state;
+			this.timestamp = timestamp;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of project state changes made since the last state
+ * snapshot.
+ *
+ * <p>
+ * The journal starts with a header identifying the snapshot generation it
+ * applies to, followed by length-prefixed, checksummed entries (one per
+ * save). Replay stops at the first incomplete or corrupt entry, which is then
+ * truncated away; journals of other generations are ignored.
+ * </p>
+ */
+public class ProjectStateJournal {
+
+	// journal file signature ("DSAJ")
+	private static final int MAGIC = 0x4453414A;
+
+	private static final int HEADER_SIZE = 12;
+
+	// entry length and checksum
+	private static final int ENTRY_HEADER_SIZE = 8;
+
+	private static final Debug debug = Debug.getDebug("ds-annotation-builder"); //$NON-NLS-1$
+
+	private final File file;
+
+	public ProjectStateJournal(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long length() {
+		return file.length();
+	}
+
+	/**
+	 * Appends the given state's changes as a new entry, and forces it to disk.
+	 * Starts a new journal if the existing one belongs to another generation.
+	 */
+	public void append(ProjectState state) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream entry = new DataOutputStream(bytes);
+		entry.writeInt(0);
+		entry.writeInt(0);
+		state.writeChanges(entry);
+		entry.flush();
+
+		byte[] buf = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(buf, ENTRY_HEADER_SIZE, buf.length - ENTRY_HEADER_SIZE);
+		ByteBuffer header = ByteBuffer.wrap(buf, 0, ENTRY_HEADER_SIZE);
+		header.putInt(buf.length - ENTRY_HEADER_SIZE);
+		header.putInt((int) crc.getValue());
+
+		RandomAccessFile out = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			if (isValidHeader(out, state.getGeneration())) {
+				out.seek(out.length());
+			} else {
+				out.setLength(0);
+				out.writeInt(MAGIC);
+				out.writeLong(state.getGeneration());
+			}
+
+			out.write(buf);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+	}
+
+	private static boolean isValidHeader(RandomAccessFile in, long generation) throws IOException {
+		if (in.length() < HEADER_SIZE)
+			return false;
+
+		in.seek(0);
+		return in.readInt() == MAGIC && in.readLong() == generation;
+	}
+
+	/**
+	 * Applies all valid entries to the given state, which must have just been
+	 * loaded from its snapshot. Returns the number of entries applied.
+	 */
+	public int replay(ProjectState state) throws IOException {
+		if (!file.isFile())
+			return 0;
+
+		ByteBuffer buf;
+		RandomAccessFile in = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		try {
+			buf = ByteBuffer.allocate((int) in.length());
+			in.readFully(buf.array());
+		} finally {
+			in.close();
+		}
+
+		if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC)
+			return 0;
+
+		if (buf.getLong() != state.getGeneration()) {
+			if (debug.isDebugging())
+				debug.traceEvent("Ignoring stale project state journal: %s", file); //$NON-NLS-1$
+
+			return 0;
+		}
+
+		int count = 0;
+		int valid = buf.position();
+		CRC32 crc = new CRC32();
+		while (buf.remaining() >= ENTRY_HEADER_SIZE) {
+			int length = buf.getInt();
+			int checksum = buf.getInt();
+			if (length < 0 || length > buf.remaining())
+				break;
+
+			crc.reset();
+			crc.update(buf.array(), buf.position(), length);
+			if ((int) crc.getValue() != checksum)
+				break;
+
+			ByteBuffer entry = buf.slice();
+			entry.limit(length);
+			state.readChanges(entry);
+			buf.position(buf.position() + length);
+			valid = buf.position();
+			++count;
+		}
+
+		// entries written against a snapshot are now part of the in-memory state
+		state.clearChanges();
+
+		if (valid < buf.limit())
+			truncate(valid);
+
+		if (debug.isDebugging())
+			debug.traceEvent("Replayed %d project state journal entries: %s", count, file); //$NON-NLS-1$
+
+		return count;
+	}
+
+	private void truncate(long length) throws IOException {
+		if (debug.isDebugging())
+			debug.traceEvent("Truncating incomplete project state journal at %d: %s", length, file); //$NON-NLS-1$
+
+		RandomAccessFile out = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			out.setLength(length);
+		} finally {
+			out.close();
+		}
+	}
+
+	public boolean delete() {
+		return !file.exists() || file.delete();
+	}
+}
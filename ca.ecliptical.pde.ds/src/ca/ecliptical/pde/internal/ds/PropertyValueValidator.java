@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.pde.internal.ds.core.IDSConstants;
+
+/**
+ * Checks whether component property values can be converted to their
+ * declared type, accepting exactly what the corresponding
+ * <code>valueOf</code> method accepts, but without parsing them (or throwing
+ * exceptions for invalid input).
+ */
+@SuppressWarnings("restriction")
+abstract class PropertyValueValidator {
+
+	private static final PropertyValueValidator ANY = new PropertyValueValidator() {
+		@Override
+		boolean isValid(String value) {
+			return true;
+		}
+	};
+
+	private static final PropertyValueValidator FLOATING_POINT = new PropertyValueValidator() {
+		@Override
+		boolean isValid(String value) {
+			return isFloatingPoint(value);
+		}
+	};
+
+	// property type -> validator; null type means String
+	private static final Map<String, PropertyValueValidator> validators = new HashMap<String, PropertyValueValidator>();
+
+	static {
+		validators.put(null, ANY);
+		validators.put(IDSConstants.VALUE_PROPERTY_TYPE_STRING, ANY);
+		validators.put(IDSConstants.VALUE_PROPERTY_TYPE_BOOLEAN, ANY);
+		validators.put(IDSConstants.VALUE_PROPERTY_TYPE_LONG, new IntegerValidator(Long.MIN_VALUE, Long.MAX_VALUE));
+		validators.put(IDSConstants.VALUE_PROPERTY_TYPE_INTEGER, new IntegerValidator(Integer.MIN_VALUE, Integer.MAX_VALUE));
+		// note: characters are specified by their (integer) code
+		validators.put(IDSConstants.VALUE_PROPERTY_TYPE_CHAR, new IntegerValidator(Integer.MIN_VALUE, Integer.MAX_VALUE));
+		validators.put(IDSConstants.VALUE_PROPERTY_TYPE_SHORT, new IntegerValidator(Short.MIN_VALUE, Short.MAX_VALUE));
+		validators.put(IDSConstants.VALUE_PROPERTY_TYPE_BYTE, new IntegerValidator(Byte.MIN_VALUE, Byte.MAX_VALUE));
+		validators.put(IDSConstants.VALUE_PROPERTY_TYPE_DOUBLE, FLOATING_POINT);
+		validators.put(IDSConstants.VALUE_PROPERTY_TYPE_FLOAT, FLOATING_POINT);
+	}
+
+	/**
+	 * Returns the validator of the given property type, or <code>null</code>
+	 * if the type isn't supported.
+	 */
+	static PropertyValueValidator forType(String type) {
+		return validators.get(type);
+	}
+
+	abstract boolean isValid(String value);
+
+	private static boolean isFloatingPoint(String value) {
+		// like Double.valueOf, ignore leading and trailing whitespace
+		value = value.trim();
+		int n = value.length();
+		int i = 0;
+		if (i < n && (value.charAt(i) == '+' || value.charAt(i) == '-'))
+			++i;
+
+		if (value.startsWith("NaN", i)) //$NON-NLS-1$
+			return i + 3 == n;
+
+		if (value.startsWith("Infinity", i)) //$NON-NLS-1$
+			return i + 8 == n;
+
+		boolean hex = i + 1 < n && value.charAt(i) == '0' && (value.charAt(i + 1) == 'x' || value.charAt(i + 1) == 'X');
+		if (hex)
+			i += 2;
+
+		int radix = hex ? 16 : 10;
+		int digits = 0;
+		for (; i < n && isDigit(value.charAt(i), radix); ++i) {
+			++digits;
+		}
+
+		if (i < n && value.charAt(i) == '.') {
+			for (++i; i < n && isDigit(value.charAt(i), radix); ++i) {
+				++digits;
+			}
+		}
+
+		if (digits == 0)
+			return false;
+
+		// exponent is mandatory in hexadecimal notation
+		if (i < n && (hex ? value.charAt(i) == 'p' || value.charAt(i) == 'P' : value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+			if (++i < n && (value.charAt(i) == '+' || value.charAt(i) == '-'))
+				++i;
+
+			int start = i;
+			for (; i < n && isDigit(value.charAt(i), 10); ++i) {
+				// skip exponent digits
+			}
+
+			if (i == start)
+				return false;
+		} else if (hex) {
+			return false;
+		}
+
+		// optional type suffix
+		if (i < n && "fFdD".indexOf(value.charAt(i)) != -1) //$NON-NLS-1$
+			++i;
+
+		return i == n;
+	}
+
+	private static boolean isDigit(char c, int radix) {
+		return (c >= '0' && c <= '9')
+				|| (radix == 16 && ((c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')));
+	}
+
+	private static class IntegerValidator extends PropertyValueValidator {
+
+		private final long min;
+
+		private final long max;
+
+		IntegerValidator(long min, long max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		boolean isValid(String value) {
+			int n = value.length();
+			if (n == 0)
+				return false;
+
+			int i = 0;
+			boolean negative = false;
+			char first = value.charAt(0);
+			if (first == '-' || first == '+') {
+				negative = first == '-';
+				if (++i == n)
+					return false;
+			}
+
+			// accumulate negatively, same as Long.parseLong, to avoid overflow near the limits
+			long limit = negative ? min : -max;
+			long multmin = limit / 10;
+			long result = 0;
+			for (; i < n; ++i) {
+				int digit = Character.digit(value.charAt(i), 10);
+				if (digit < 0 || result < multmin)
+					return false;
+
+				result *= 10;
+				if (result < limit + digit)
+					return false;
+
+				result -= digit;
+			}
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * Indexed representation of the Service-Component manifest header.
+ *
+ * <p>
+ * Entries are looked up by exact path, or by wildcard patterns declared in
+ * the same directory; wildcard filters are compiled only once.
+ * </p>
+ */
+public class ServiceComponentHeader {
+
+	private final LinkedHashSet<IPath> entries = new LinkedHashSet<IPath>();
+
+	// parent directory -> filters of wildcard entries in that directory
+	private final Map<IPath, List<Filter>> wildcards = new HashMap<IPath, List<Filter>>();
+
+	private final Map<IPath, Filter> filters = new HashMap<IPath, Filter>();
+
+	public ServiceComponentHeader(String value) {
+		if (value == null)
+			return;
+
+		String[] elements = value.split("\\s*,\\s*"); //$NON-NLS-1$
+		for (String element : elements) {
+			if (element.length() != 0)
+				add(new Path(element));
+		}
+	}
+
+	public boolean includes(IPath path) {
+		if (entries.contains(path))
+			return true;
+
+		List<Filter> dirFilters = wildcards.get(path.removeLastSegments(1));
+		if (dirFilters != null) {
+			Map<String, String> props = Collections.singletonMap("filename", path.lastSegment()); //$NON-NLS-1$
+			for (Filter filter : dirFilters) {
+				if (filter.matches(props))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	public boolean add(IPath path) {
+		if (!entries.add(path))
+			return false;
+
+		String name = path.lastSegment();
+		if (name != null && name.indexOf('*') != -1) {
+			Filter filter;
+			try {
+				filter = FrameworkUtil.createFilter("(filename=" + sanitizeFilterValue(name) + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			} catch (InvalidSyntaxException e) {
+				return true;
+			}
+
+			filters.put(path, filter);
+			IPath dir = path.removeLastSegments(1);
+			List<Filter> dirFilters = wildcards.get(dir);
+			if (dirFilters == null) {
+				dirFilters = new ArrayList<Filter>(1);
+				wildcards.put(dir, dirFilters);
+			}
+
+			dirFilters.add(filter);
+		}
+
+		return true;
+	}
+
+	public boolean remove(IPath path) {
+		if (!entries.remove(path))
+			return false;
+
+		Filter filter = filters.remove(path);
+		if (filter != null) {
+			IPath dir = path.removeLastSegments(1);
+			List<Filter> dirFilters = wildcards.get(dir);
+			dirFilters.remove(filter);
+			if (dirFilters.isEmpty())
+				wildcards.remove(dir);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes abandoned entries and adds retained ones not already included.
+	 *
+	 * @return whether any entries changed
+	 */
+	public boolean update(Collection<String> retained, Collection<String> abandoned) {
+		boolean changed = false;
+		for (String dsKey : abandoned) {
+			changed |= remove(Path.fromPortableString(dsKey));
+		}
+
+		for (String dsKey : retained) {
+			IPath path = Path.fromPortableString(dsKey);
+			if (!includes(path))
+				changed |= add(path);
+		}
+
+		return changed;
+	}
+
+	private static String sanitizeFilterValue(String value) {
+		return value.replace("\\", "\\\\").replace("(", "\\(").replace(")", "\\)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}
+
+	/**
+	 * Returns the header value.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		for (IPath entry : entries) {
+			if (buf.length() > 0)
+				buf.append(",\n "); //$NON-NLS-1$
+
+			buf.append(entry.toString());
+		}
+
+		return buf.toString();
+	}
+}
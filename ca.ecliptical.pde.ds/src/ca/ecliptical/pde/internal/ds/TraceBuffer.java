@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Ecliptical Software Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Ecliptical Software Inc. - initial API and implementation
+ *******************************************************************************/
+package ca.ecliptical.pde.internal.ds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Per-thread ring buffer of trace events, drained and formatted
+ * asynchronously.
+ *
+ * <p>
+ * Each buffer has a single producer (its owner thread) and a single consumer
+ * (the flusher), so recording an event only takes a few array stores and one
+ * volatile write; when the buffer is full, events are dropped rather than
+ * blocking the producer. Events are formatted only when flushed.
+ * </p>
+ */
+final class TraceBuffer {
+
+	// must be a power of two
+	private static final int CAPACITY = 4096;
+
+	private static final int MASK = CAPACITY - 1;
+
+	private static final long FLUSH_INTERVAL = 100;
+
+	private static final List<TraceBuffer> buffers = new CopyOnWriteArrayList<TraceBuffer>();
+
+	private static final ThreadLocal<TraceBuffer> current = new ThreadLocal<TraceBuffer>() {
+		@Override
+		protected TraceBuffer initialValue() {
+			TraceBuffer buffer = new TraceBuffer(Thread.currentThread());
+			buffers.add(buffer);
+			startFlusher();
+			return buffer;
+		}
+	};
+
+	private static Thread flusher;
+
+	private final Thread thread;
+
+	private final long[] times = new long[CAPACITY];
+
+	private final Debug[] sources = new Debug[CAPACITY];
+
+	private final String[] formats = new String[CAPACITY];
+
+	private final int[] argCounts = new int[CAPACITY];
+
+	private final Object[] args0 = new Object[CAPACITY];
+
+	private final Object[] args1 = new Object[CAPACITY];
+
+	private final Object[] args2 = new Object[CAPACITY];
+
+	// only used by events recorded with an argument array
+	private final Object[][] moreArgs = new Object[CAPACITY][];
+
+	// next slot to write; only written by the owner thread
+	private volatile long tail;
+
+	// next slot to read; only written by the flusher
+	private volatile long head;
+
+	// only written by the owner thread
+	private volatile int dropped;
+
+	// only used by the flusher
+	private int droppedReported;
+
+	private TraceBuffer(Thread thread) {
+		this.thread = thread;
+	}
+
+	static void record(Debug source, String format, int argCount, Object arg0, Object arg1, Object arg2, Object[] more) {
+		current.get().add(source, format, argCount, arg0, arg1, arg2, more);
+	}
+
+	private void add(Debug source, String format, int argCount, Object arg0, Object arg1, Object arg2, Object[] more) {
+		long t = tail;
+		if (t - head >= CAPACITY) {
+			++dropped;
+			return;
+		}
+
+		int i = (int) t & MASK;
+		times[i] = System.nanoTime();
+		sources[i] = source;
+		formats[i] = format;
+		argCounts[i] = argCount;
+		args0[i] = arg0;
+		args1[i] = arg1;
+		args2[i] = arg2;
+		moreArgs[i] = more;
+
+		// publish
+		tail = t + 1;
+	}
+
+	private void drain(List<Event> events) {
+		long h = head;
+		long t = tail;
+		if (h == t)
+			return;
+
+		int lost = dropped - droppedReported;
+		if (lost > 0) {
+			droppedReported += lost;
+			Object[] args = new Object[] { Integer.valueOf(lost) };
+			events.add(new Event(times[(int) h & MASK], thread.getName(), sources[(int) h & MASK], "(%d trace events dropped)", args)); //$NON-NLS-1$
+		}
+
+		for (; h < t; ++h) {
+			int i = (int) h & MASK;
+			Object[] args;
+			if (moreArgs[i] != null) {
+				args = moreArgs[i];
+			} else {
+				switch (argCounts[i]) {
+				case 1:
+					args = new Object[] { args0[i] };
+					break;
+				case 2:
+					args = new Object[] { args0[i], args1[i] };
+					break;
+				case 3:
+					args = new Object[] { args0[i], args1[i], args2[i] };
+					break;
+				default:
+					args = null;
+				}
+			}
+
+			events.add(new Event(times[i], thread.getName(), sources[i], formats[i], args));
+
+			// release references
+			sources[i] = null;
+			formats[i] = null;
+			args0[i] = args1[i] = args2[i] = null;
+			moreArgs[i] = null;
+		}
+
+		head = h;
+	}
+
+	private boolean isDisposable() {
+		return !thread.isAlive() && head == tail;
+	}
+
+	/**
+	 * Formats and writes out all events recorded so far, in the order they
+	 * were recorded.
+	 */
+	static synchronized void flush() {
+		ArrayList<Event> events = new ArrayList<Event>();
+		for (TraceBuffer buffer : buffers) {
+			buffer.drain(events);
+			if (buffer.isDisposable())
+				buffers.remove(buffer);
+		}
+
+		if (events.isEmpty())
+			return;
+
+		Collections.sort(events, new Comparator<Event>() {
+			public int compare(Event o1, Event o2) {
+				return o1.time < o2.time ? -1 : o1.time == o2.time ? 0 : 1;
+			}
+		});
+
+		for (Event event : events) {
+			String message;
+			try {
+				message = event.args == null ? event.format : String.format(event.format, event.args);
+			} catch (RuntimeException e) {
+				// malformed format, or an argument that fails to format itself
+				message = event.format;
+			}
+
+			event.source.write(String.format("[%s] %s", event.threadName, message)); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Stops the flusher thread, waits for it to finish, and writes out any
+	 * remaining events.
+	 */
+	static void shutdown() {
+		Thread thread;
+		synchronized (TraceBuffer.class) {
+			thread = flusher;
+			flusher = null;
+		}
+
+		if (thread != null) {
+			thread.interrupt();
+			// the flusher may be in the middle of a flush, which needs the lock
+			boolean interrupted = false;
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		flush();
+	}
+
+	private static synchronized void startFlusher() {
+		if (flusher != null)
+			return;
+
+		flusher = new Thread("DS Annotations Trace Flusher") { //$NON-NLS-1$
+			@Override
+			public void run() {
+				while (!isInterrupted()) {
+					try {
+						Thread.sleep(FLUSH_INTERVAL);
+					} catch (InterruptedException e) {
+						break;
+					}
+
+					flush();
+				}
+			}
+		};
+
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	private static final class Event {
+
+		final long time;
+
+		final String threadName;
+
+		final Debug source;
+
+		final String format;
+
+		final Object[] args;
+
+		Event(long time, String threadName, Debug source, String format, Object[] args) {
+			this.time = time;
+			this.threadName = threadName;
+			this.source = source;
+			this.format = format;
+			this.args = args;
+		}
+	}
+}